@@ -1,14 +1,13 @@
 package im.conversations.status;
 
 import im.conversations.status.persistence.Database;
-import im.conversations.status.persistence.HistoricalDataNotAvailableException;
 import im.conversations.status.pojo.HistoricalLoginStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -18,25 +17,19 @@ public class HistoricalDataUpdater implements Runnable {
     @Override
     public void run() {
         final Instant start = Instant.now();
-        Database.getInstance().discardExpired();
         final List<String> domains = Database.getInstance().getDomains();
+        final Map<String, HistoricalLoginStatus> statuses = Database.getInstance().getHistoricalLoginStatus();
+        if (statuses.isEmpty() && !domains.isEmpty()) {
+            // most likely the store failed; keep showing what was calculated before
+            LOGGER.warn("no historic data for any of " + domains.size() + " domains. keeping previous data");
+            return;
+        }
         for (final String domain : domains) {
-            final HistoricalLoginStatus status = create(domain);
+            final HistoricalLoginStatus status = statuses.getOrDefault(domain, new HistoricalLoginStatus(Collections.emptyMap()));
             Database.getInstance().put(domain, status);
         }
+        Database.getInstance().saveHistoricalLoginStatus(start);
+        Database.getInstance().putHistoricalPingStatus(Database.getInstance().getHistoricalPingStatus());
         LOGGER.info("calculated historic data for " + domains.size() + " domains in " + Duration.between(start, Instant.now()));
     }
-
-    private HistoricalLoginStatus create(String server) {
-        final Map<Duration, Double> map = new HashMap<>();
-        for (int d : HistoricalLoginStatus.DURATIONS) {
-            try {
-                final Duration duration = Duration.of(d, HistoricalLoginStatus.UNIT);
-                map.put(duration, Database.getInstance().getHistoricalLoginStatus(server, duration));
-            } catch (HistoricalDataNotAvailableException e) {
-                //ignore information not available
-            }
-        }
-        return new HistoricalLoginStatus(map);
-    }
 }
@@ -1,18 +1,25 @@
 package im.conversations.status;
 
+import im.conversations.status.network.NetworkAvailability;
 import im.conversations.status.persistence.Database;
 import im.conversations.status.pojo.Configuration;
 import im.conversations.status.pojo.Credentials;
+import im.conversations.status.scheduler.BoundedExecutor;
+import im.conversations.status.scheduler.Cadence;
+import im.conversations.status.scheduler.CheckRegistry;
+import im.conversations.status.scheduler.CheckScheduler;
+import im.conversations.status.scheduler.NetworkGate;
 import im.conversations.status.web.Controller;
-import im.conversations.status.xmpp.ServerStatusChecker;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rocks.xmpp.addr.Jid;
 import spark.TemplateEngine;
 import spark.template.freemarker.FreeMarkerEngine;
 
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -22,8 +29,15 @@ public class Main {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
-    private static ScheduledThreadPoolExecutor statusCheckExecutor = new ScheduledThreadPoolExecutor(5);
+    public static final Duration CHECK_INTERVAL = Duration.ofMinutes(2);
+    private static final Duration HISTORICAL_DATA_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration CREDENTIALS_RETRY_INTERVAL = Duration.ofSeconds(30);
+
+    private static CheckScheduler statusCheckScheduler;
+    private static CheckRegistry statusCheckRegistry;
     private static ScheduledThreadPoolExecutor historicDataExecutor = new ScheduledThreadPoolExecutor(1);
+    private static ScheduledThreadPoolExecutor compactionExecutor = new ScheduledThreadPoolExecutor(1);
+    private static ScheduledThreadPoolExecutor credentialsExecutor = new ScheduledThreadPoolExecutor(1);
 
     public static void main(String... args) {
         Options options = new Options();
@@ -47,6 +61,13 @@ public class Main {
             LOGGER.info("Configuration does not have primary domain");
         }
 
+        NetworkAvailability.start();
+        statusCheckScheduler = new CheckScheduler(CHECK_INTERVAL, createStatusCheckExecutor(), createCadence());
+        statusCheckRegistry = new CheckRegistry(statusCheckScheduler);
+        NetworkAvailability.addListener(new NetworkGate(statusCheckScheduler));
+        Database.getInstance().restoreServerStatus();
+        final Instant historicalDataCalculated = Database.getInstance().restoreHistoricalLoginStatus();
+
         ipAddress(Configuration.getInstance().getIp());
         port(Configuration.getInstance().getPort());
         final TemplateEngine templateEngine = new FreeMarkerEngine();
@@ -63,19 +84,78 @@ public class Main {
         get("/live/:domain/", Controller.getLive, templateEngine);
         get("/availability/:domain/", Controller.getAvailability);
         get("/reverse/:domain/", Controller.getReverse, templateEngine);
+        get("/incidents/:domain/", Controller.getIncidents, templateEngine);
+        get("/metrics/", Controller.getMetrics);
         get("/:domain/", Controller.getStatus, templateEngine);
         get("/badge/:domain/", Controller.getBadge, templateEngine);
         scheduleStatusCheck();
-        historicDataExecutor.scheduleWithFixedDelay(new HistoricalDataUpdater(), 0, 10, TimeUnit.MINUTES);
+        if (!Database.getInstance().loadCredentials()) {
+            retryCredentials();
+        }
+        statusCheckScheduler.start();
+        historicDataExecutor.scheduleWithFixedDelay(new HistoricalDataUpdater(), historicalDataDelay(historicalDataCalculated).toMillis(), HISTORICAL_DATA_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        compactionExecutor.scheduleWithFixedDelay(() -> Database.getInstance().compact(), 1, 60, TimeUnit.MINUTES);
 
     }
 
-    public static void scheduleStatusCheck() {
-        statusCheckExecutor.getQueue().clear();
-        List<Credentials> credentialsList = Database.getInstance().getCredentials();
-        List<Jid> pingTargetList = Database.getInstance().getPingTargets();
-        for (Credentials credentials : credentialsList) {
-            statusCheckExecutor.scheduleAtFixedRate(new ServerStatusChecker(credentials, pingTargetList), 0, 2, TimeUnit.MINUTES);
+    /**
+     * Restored historical data is only recalculated once it is as old as it would have gotten
+     * without the restart, which keeps the heavy queries away from startup.
+     */
+    private static Duration historicalDataDelay(Instant calculated) {
+        if (calculated == null) {
+            return Duration.ZERO;
+        }
+        final Duration age = Duration.between(calculated, Instant.now());
+        return age.isNegative() || age.compareTo(HISTORICAL_DATA_INTERVAL) >= 0 ? Duration.ZERO : HISTORICAL_DATA_INTERVAL.minus(age);
+    }
+
+    private static Cadence createCadence() {
+        final Configuration configuration = Configuration.getInstance();
+        if (configuration.isAdaptiveCadence()) {
+            return Cadence.adaptive(CHECK_INTERVAL,
+                    configuration.getConfirmDelay(),
+                    configuration.getConfirmations(),
+                    configuration.getBackoffAfter(),
+                    configuration.getMaxCheckInterval());
+        }
+        return Cadence.fixed(CHECK_INTERVAL);
+    }
+
+    private static Executor createStatusCheckExecutor() {
+        final Configuration configuration = Configuration.getInstance();
+        final int maxConcurrentChecks = configuration.getMaxConcurrentChecks();
+        if (configuration.isVirtualThreads()) {
+            LOGGER.info("running status checks on virtual threads with at most " + maxConcurrentChecks + " at a time");
+            return new BoundedExecutor(Executors.newVirtualThreadPerTaskExecutor(), maxConcurrentChecks);
         }
+        return Executors.newFixedThreadPool(maxConcurrentChecks);
+    }
+
+    /**
+     * Keeps trying to read the credentials until the store answers, then schedules their checks.
+     */
+    private static void retryCredentials() {
+        LOGGER.warn("credentials not loaded. retrying in " + CREDENTIALS_RETRY_INTERVAL);
+        credentialsExecutor.schedule(() -> {
+            if (Database.getInstance().loadCredentials()) {
+                LOGGER.info("loaded " + Database.getInstance().getCredentials().size() + " credentials");
+                scheduleStatusCheck();
+            } else {
+                retryCredentials();
+            }
+        }, CREDENTIALS_RETRY_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public static void scheduleStatusCheck() {
+        statusCheckRegistry.sync(Database.getInstance().getCredentials());
+    }
+
+    public static void scheduleStatusCheck(Credentials credentials) {
+        statusCheckRegistry.add(credentials);
+    }
+
+    public static void cancelStatusCheck(Credentials credentials) {
+        statusCheckRegistry.remove(credentials);
     }
 }
@@ -0,0 +1,36 @@
+package im.conversations.status.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Registry of named gauges and counters that is rendered as plain text on /metrics/.
+ */
+public class Metrics {
+
+    private static final Map<String, Supplier<? extends Number>> METRICS = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+
+    }
+
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        METRICS.put(name, supplier);
+    }
+
+    public static AtomicLong counter(String name) {
+        final AtomicLong counter = new AtomicLong();
+        METRICS.put(name, counter::get);
+        return counter;
+    }
+
+    public static String render() {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Supplier<? extends Number>> entry : METRICS.entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        return builder.toString();
+    }
+}
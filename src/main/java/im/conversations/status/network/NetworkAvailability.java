@@ -1,26 +1,115 @@
 package im.conversations.status.network;
 
+import im.conversations.status.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Background monitor of the uplink of this node. It periodically opens TCP connections to well
+ * known DNS resolvers and caches the verdict, so checkers can ask {@link #isNetworkUp()} without
+ * doing any I/O themselves.
+ */
 public class NetworkAvailability {
 
-    private static String[] WELL_KNOWN_PING_TARGETS = new String[]{"8.8.8.8","1.1.1.1"};
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkAvailability.class);
+
+    private static final InetSocketAddress[] WELL_KNOWN_TARGETS = new InetSocketAddress[]{
+            new InetSocketAddress("8.8.8.8", 53),
+            new InetSocketAddress("1.1.1.1", 53)
+    };
+
+    private static final Duration PROBE_INTERVAL = Duration.ofSeconds(5);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration TTL = Duration.ofSeconds(30);
+    private static final int PROBES_TO_CHANGE = 3;
+
+    private static final ScheduledExecutorService MONITOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "network-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final List<Consumer<Boolean>> LISTENERS = new CopyOnWriteArrayList<>();
 
+    private static volatile boolean up = true;
+    private static volatile long verifiedAt = 0;
+    private static int disagreeing = 0;
+    private static boolean started = false;
 
-    public static boolean test() {
-        for(String ip : WELL_KNOWN_PING_TARGETS) {
-            if (ping(ip)) {
-                return true;
+    private NetworkAvailability() {
+
+    }
+
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Metrics.gauge("network.up", () -> isNetworkUp() ? 1 : 0);
+        MONITOR.scheduleWithFixedDelay(NetworkAvailability::probe, 0, PROBE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a listener that is called from the monitor thread whenever the verdict changes,
+     * which takes {@value #PROBES_TO_CHANGE} consecutive probes with the new outcome.
+     */
+    public static void addListener(Consumer<Boolean> listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * @return the cached verdict. A verdict older than the TTL (monitor not running or stuck) is
+     * treated as up so that results are never discarded based on stale information.
+     */
+    public static boolean isNetworkUp() {
+        return up || System.currentTimeMillis() - verifiedAt > TTL.toMillis();
+    }
+
+    private static void probe() {
+        boolean reachable = false;
+        for (InetSocketAddress target : WELL_KNOWN_TARGETS) {
+            if (connect(target)) {
+                reachable = true;
+                break;
+            }
+        }
+        verifiedAt = System.currentTimeMillis();
+        // a single flaky probe must not pause every check, so the verdict only flips after a streak
+        if (reachable == up) {
+            disagreeing = 0;
+            return;
+        }
+        if (++disagreeing < PROBES_TO_CHANGE) {
+            return;
+        }
+        disagreeing = 0;
+        up = reachable;
+        LOGGER.info("network is " + (reachable ? "up" : "down"));
+        for (Consumer<Boolean> listener : LISTENERS) {
+            try {
+                listener.accept(reachable);
+            } catch (RuntimeException e) {
+                LOGGER.warn("network listener failed", e);
             }
         }
-        return false;
     }
 
-    private static boolean ping(String ip) {
-        try {
-            Process ping = Runtime.getRuntime().exec("ping -c 1 "+ip);
-            return ping.waitFor() == 0;
-        } catch (IOException | InterruptedException e) {
+    private static boolean connect(InetSocketAddress target) {
+        try (Socket socket = new Socket()) {
+            socket.connect(target, (int) CONNECT_TIMEOUT.toMillis());
+            return true;
+        } catch (IOException e) {
             return false;
         }
     }
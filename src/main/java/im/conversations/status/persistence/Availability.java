@@ -0,0 +1,47 @@
+package im.conversations.status.persistence;
+
+import java.time.Duration;
+
+/**
+ * Time-weighted login availability of a server within a window. {@code total} and {@code up} are
+ * the seconds covered by all samples and by successful samples respectively.
+ */
+public class Availability {
+
+    private long samples;
+    private long total;
+    private long up;
+
+    public Availability() {
+
+    }
+
+    public Availability(long samples, long total, long up) {
+        this.samples = samples;
+        this.total = total;
+        this.up = up;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getUp() {
+        return up;
+    }
+
+    public double getPercentage(Duration duration) throws HistoricalDataNotAvailableException {
+        if (samples == 0 || total == 0) {
+            throw new HistoricalDataNotAvailableException("No information available for time span");
+        }
+        final long needed = duration.getSeconds() / 2;
+        if (total < needed) {
+            throw new HistoricalDataNotAvailableException("Not enough data. " + total + "s / " + needed + "s");
+        }
+        return ((double) up / total) * 100;
+    }
+}
@@ -0,0 +1,435 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Embedded time series store that keeps one append-only, memory-mapped file per server. Time is
+ * divided into slots of two minutes and every slot has one status bit and one presence bit, so a
+ * year of history takes about 64 KB per server and the uptime of any window is a popcount over
+ * a contiguous range of words.
+ * <p>
+ * File layout: a 512 byte header (magic, version, first slot of the file, the length prefixed
+ * UTF-8 key) followed by blocks of two longs per 64 slots: the status word and the presence word.
+ */
+public class BitmapStore {
+
+    public static final Duration SLOT = Duration.ofMinutes(2);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BitmapStore.class);
+
+    private static final int MAGIC = 0x53534231; // SSB1
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 512;
+    private static final int BLOCK_SIZE = 16;
+    private static final int SEGMENT_BLOCKS = 4096; // 64 KB, about one year
+    private static final String SUFFIX = ".bits";
+
+    private final Path directory;
+    private final Map<String, Series> series = new HashMap<>();
+
+    public BitmapStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return false if the history could not be written
+     */
+    public boolean mark(String key, Instant timestamp, boolean status, long weight) {
+        final long last = slotOf(timestamp);
+        final long first = Math.min(last, slotOf(timestamp.minusSeconds(weight)) + 1);
+        try {
+            get(key, first).mark(first, last, status);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("unable to write history of " + key, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the availability between from (inclusive) and to (exclusive) or null if nothing is
+     * known about the key
+     */
+    public Availability getAvailability(String key, Instant from, Instant to) {
+        try {
+            final Series s = get(key, -1);
+            return s == null ? null : s.availability(slotOf(from), slotOf(to));
+        } catch (IOException e) {
+            LOGGER.warn("unable to read history of " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the start of the earliest slot with data or null if there is none
+     */
+    public Instant getFirst(String key) {
+        try {
+            final Series s = get(key, -1);
+            final long slot = s == null ? -1 : s.firstPresent();
+            return slot < 0 ? null : Instant.ofEpochSecond(slot * SLOT.getSeconds());
+        } catch (IOException e) {
+            LOGGER.warn("unable to read history of " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the start of the latest slot in which the key was down or null if there is none
+     */
+    public Instant getLastDown(String key) {
+        try {
+            final Series s = get(key, -1);
+            final long slot = s == null ? -1 : s.lastDown();
+            return slot < 0 ? null : Instant.ofEpochSecond(slot * SLOT.getSeconds());
+        } catch (IOException e) {
+            LOGGER.warn("unable to read history of " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the runs of slots in which the key was down after the given instant, as start and
+     * end instants. The end of a run is the first slot it was up again or null if it still is down.
+     */
+    public List<Instant[]> getDownRuns(String key, Instant from) {
+        final List<Instant[]> runs = new ArrayList<>();
+        try {
+            final Series s = get(key, -1);
+            if (s != null) {
+                for (long[] run : s.downRuns(slotOf(from))) {
+                    runs.add(new Instant[]{Instant.ofEpochSecond(run[0] * SLOT.getSeconds()), run[1] < 0 ? null : Instant.ofEpochSecond(run[1] * SLOT.getSeconds())});
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to read history of " + key, e);
+        }
+        return runs;
+    }
+
+    /**
+     * @return the keys of all files. Files written before keys were kept in the header are listed
+     * under their file name.
+     */
+    public List<String> getKeys() {
+        final List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                final String key = readKey(path);
+                if (key != null) {
+                    keys.add(key);
+                } else {
+                    final String name = path.getFileName().toString();
+                    keys.add(name.substring(0, name.length() - SUFFIX.length()));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to list history files", e);
+        }
+        return keys;
+    }
+
+    /**
+     * Writes everything marked so far to disk.
+     */
+    public void force() {
+        synchronized (series) {
+            for (Series s : series.values()) {
+                s.force();
+            }
+        }
+    }
+
+    /**
+     * Writes everything marked so far to disk and closes all files. Files are opened again when
+     * they are next used.
+     */
+    public void close() {
+        synchronized (series) {
+            for (Map.Entry<String, Series> entry : series.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    LOGGER.warn("unable to close history of " + entry.getKey(), e);
+                }
+            }
+            series.clear();
+        }
+    }
+
+    /**
+     * Drops the history before the given instant by rewriting each file that has whole blocks of
+     * 64 slots before it. Must not run concurrently with {@link #mark}.
+     */
+    public void discardBefore(Instant expiry) {
+        final long expirySlot = slotOf(expiry) & ~63L;
+        for (String key : getKeys()) {
+            final Path path = directory.resolve(sanitize(key) + SUFFIX);
+            synchronized (series) {
+                try {
+                    final Series s = get(key, -1);
+                    if (s == null || s.baseSlot >= expirySlot) {
+                        continue;
+                    }
+                    s.close();
+                    series.remove(key);
+                    final long skipped = (expirySlot - s.baseSlot) >>> 6;
+                    final long size = Files.size(path);
+                    final long from = HEADER_SIZE + skipped * BLOCK_SIZE;
+                    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+                    try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+                         FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                        target.write(header(s.key, expirySlot), 0);
+                        long position = HEADER_SIZE;
+                        target.position(HEADER_SIZE);
+                        for (long offset = from; offset < size; ) {
+                            final long transferred = source.transferTo(offset, size - offset, target);
+                            offset += transferred;
+                            position += transferred;
+                        }
+                        final long segmentSize = (long) SEGMENT_BLOCKS * BLOCK_SIZE;
+                        final long data = position - HEADER_SIZE;
+                        final long padded = HEADER_SIZE + (data + segmentSize - 1) / segmentSize * segmentSize;
+                        if (padded > position) {
+                            target.write(ByteBuffer.wrap(new byte[]{0}), padded - 1);
+                        }
+                        target.force(true);
+                    }
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("unable to discard expired history of " + key, e);
+                }
+            }
+        }
+    }
+
+    public static long slotOf(Instant instant) {
+        return Math.floorDiv(instant.getEpochSecond(), SLOT.getSeconds());
+    }
+
+    /**
+     * @param firstSlot the slot a new file starts at or -1 to not create one
+     */
+    private Series get(String key, long firstSlot) throws IOException {
+        synchronized (series) {
+            Series s = series.get(key);
+            if (s == null) {
+                final Path path = directory.resolve(sanitize(key) + SUFFIX);
+                if (firstSlot < 0 && !Files.exists(path)) {
+                    return null;
+                }
+                s = new Series(path, key, firstSlot);
+                if (!s.key.equals(key)) {
+                    LOGGER.warn("history of " + key + " shares its file with " + s.key);
+                }
+                series.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    private static String sanitize(String key) {
+        return key.replaceAll("[^a-zA-Z0-9.\\-]", "_");
+    }
+
+    private static ByteBuffer header(String key, long baseSlot) throws IOException {
+        final byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        if (name.length > HEADER_SIZE - 18) {
+            throw new IOException("key " + key + " is too long");
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(baseSlot);
+        header.putShort((short) name.length);
+        header.put(name);
+        header.rewind();
+        return header;
+    }
+
+    /**
+     * @return the key stored in the header of the file or null if the file has no valid header
+     */
+    private static String readKey(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return null;
+            }
+            return new String(header.array(), 18, header.getShort(16) & 0xffff, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Series {
+
+        private final FileChannel channel;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private final long baseSlot;
+        private final String key;
+
+        private Series(Path path, String key, long firstSlot) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() >= HEADER_SIZE && header.getInt(0) == MAGIC) {
+                if (header.getInt(4) != VERSION) {
+                    channel.close();
+                    throw new IOException(path + " has unsupported version " + header.getInt(4));
+                }
+                this.baseSlot = header.getLong(8);
+                this.key = new String(header.array(), 18, header.getShort(16) & 0xffff, StandardCharsets.UTF_8);
+            } else {
+                this.baseSlot = firstSlot & ~63L;
+                this.key = key;
+                channel.write(header(key, baseSlot), 0);
+                channel.force(true);
+            }
+        }
+
+        private synchronized void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        private synchronized void close() throws IOException {
+            force();
+            segments.clear();
+            channel.close();
+        }
+
+        private synchronized void mark(long first, long last, boolean status) throws IOException {
+            for (long slot = Math.max(first, baseSlot); slot <= last; ++slot) {
+                final long relative = slot - baseSlot;
+                final long block = relative >>> 6;
+                final long bit = 1L << (relative & 63);
+                final MappedByteBuffer segment = segment(block, true);
+                final int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_SIZE;
+                final long word = segment.getLong(offset);
+                segment.putLong(offset, status ? word | bit : word & ~bit);
+                segment.putLong(offset + 8, segment.getLong(offset + 8) | bit);
+            }
+        }
+
+        private synchronized Availability availability(long from, long to) throws IOException {
+            long present = 0;
+            long up = 0;
+            from = Math.max(from, baseSlot);
+            long slot = from;
+            while (slot < to) {
+                final long relative = slot - baseSlot;
+                final long block = relative >>> 6;
+                final MappedByteBuffer segment = segment(block, false);
+                if (segment == null) {
+                    break;
+                }
+                final int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_SIZE;
+                final long blockStart = baseSlot + (block << 6);
+                long mask = -1L;
+                if (slot > blockStart) {
+                    mask &= -1L << (slot - blockStart);
+                }
+                if (to < blockStart + 64) {
+                    mask &= -1L >>> (64 - (to - blockStart));
+                }
+                final long presence = segment.getLong(offset + 8) & mask;
+                present += Long.bitCount(presence);
+                up += Long.bitCount(segment.getLong(offset) & presence);
+                slot = blockStart + 64;
+            }
+            final long seconds = SLOT.getSeconds();
+            return new Availability(present, present * seconds, up * seconds);
+        }
+
+        private synchronized long firstPresent() throws IOException {
+            for (long block = 0; ; ++block) {
+                final MappedByteBuffer segment = segment(block, false);
+                if (segment == null) {
+                    return -1;
+                }
+                final long presence = segment.getLong((int) (block % SEGMENT_BLOCKS) * BLOCK_SIZE + 8);
+                if (presence != 0) {
+                    return baseSlot + (block << 6) + Long.numberOfTrailingZeros(presence);
+                }
+            }
+        }
+
+        private synchronized long lastDown() throws IOException {
+            final long blocks = (channel.size() - HEADER_SIZE) / BLOCK_SIZE;
+            for (long block = blocks - 1; block >= 0; --block) {
+                final MappedByteBuffer segment = segment(block, false);
+                if (segment == null) {
+                    continue;
+                }
+                final int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_SIZE;
+                final long down = segment.getLong(offset + 8) & ~segment.getLong(offset);
+                if (down != 0) {
+                    return baseSlot + (block << 6) + 63 - Long.numberOfLeadingZeros(down);
+                }
+            }
+            return -1;
+        }
+
+        private synchronized List<long[]> downRuns(long from) throws IOException {
+            final List<long[]> runs = new ArrayList<>();
+            long start = -1;
+            for (long slot = Math.max(from, baseSlot); ; ++slot) {
+                final long relative = slot - baseSlot;
+                final long block = relative >>> 6;
+                final MappedByteBuffer segment = segment(block, false);
+                if (segment == null) {
+                    break;
+                }
+                final int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_SIZE;
+                final long bit = 1L << (relative & 63);
+                if ((segment.getLong(offset + 8) & bit) == 0) {
+                    continue;
+                }
+                final boolean up = (segment.getLong(offset) & bit) != 0;
+                if (!up && start < 0) {
+                    start = slot;
+                } else if (up && start >= 0) {
+                    runs.add(new long[]{start, slot});
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                runs.add(new long[]{start, -1});
+            }
+            return runs;
+        }
+
+        private MappedByteBuffer segment(long block, boolean create) throws IOException {
+            final int index = (int) (block / SEGMENT_BLOCKS);
+            while (segments.size() <= index) {
+                final long position = HEADER_SIZE + (long) segments.size() * SEGMENT_BLOCKS * BLOCK_SIZE;
+                final long size = (long) SEGMENT_BLOCKS * BLOCK_SIZE;
+                if (!create && channel.size() < position + size) {
+                    return null;
+                }
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                segments.add(segment);
+            }
+            return segments.get(index);
+        }
+    }
+}
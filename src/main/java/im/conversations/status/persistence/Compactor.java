@@ -0,0 +1,99 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves expired history down one tier at a time: raw samples past the raw retention are folded
+ * into hourly rollups and deleted, hourly rollups past theirs are folded into daily rollups and
+ * deleted. Rollups are normally written along with the samples, so folding only fills in what's
+ * missing (INSERT IGNORE). Work is done one server at a time and deletes go through the
+ * {@link Purger}, so no statement holds locks for long.
+ */
+class Compactor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Compactor.class);
+
+    private static final String FOLD_RAW = "INSERT IGNORE INTO login_status_hourly(server,period,samples,successes,total,up,first,last) SELECT :name, from_unixtime(floor(ts/3600)*3600), count(*), sum(status), sum(weight), sum(weight*status), from_unixtime(min(ts)), from_unixtime(max(ts)) FROM login_status WHERE server_id=:id AND ts >= :from AND ts < :to GROUP BY 2";
+    private static final String FOLD_HOURLY = "INSERT IGNORE INTO login_status_daily(server,period,samples,successes,total,up,first,last) SELECT server, from_unixtime(floor(unix_timestamp(period)/86400)*86400), sum(samples), sum(successes), sum(total), sum(up), min(first), max(last) FROM login_status_hourly WHERE server=:name AND period < :to GROUP BY 2";
+
+    private final Sql2o database;
+    private final LoginStatusPartitions partitions;
+    private final TransitionLog transitionLog;
+    private final Purger purger;
+    private Instant previousRawExpiry;
+    private volatile int serversDone = 0;
+    private volatile int serversTotal = 0;
+
+    Compactor(Sql2o database, LoginStatusPartitions partitions, TransitionLog transitionLog, Purger purger) {
+        this.database = database;
+        this.partitions = partitions;
+        this.transitionLog = transitionLog;
+        this.purger = purger;
+        Metrics.gauge("purge.servers_done", () -> serversDone);
+        Metrics.gauge("purge.servers_total", () -> serversTotal);
+    }
+
+    synchronized void run(Retention retention, Instant now) {
+        final Instant rawExpiry = retention.getRawExpiry(now);
+        final Instant hourlyExpiry = retention.getHourlyExpiry(now);
+        final Instant dailyExpiry = retention.getDailyExpiry(now);
+        final long start = System.currentTimeMillis();
+        long deleted = 0;
+        try (Connection connection = database.open()) {
+            final List<Row> servers = connection.createQuery("SELECT id, name FROM servers ORDER BY id").executeAndFetchTable().rows();
+            serversDone = 0;
+            serversTotal = servers.size();
+            for (Row server : servers) {
+                final int id = server.getInteger("id");
+                final String name = server.getString("name");
+                // expired rows stay in their partition until the month is dropped, so only fold what expired since the last run
+                final Instant from = partitions != null && previousRawExpiry != null ? previousRawExpiry : Instant.EPOCH;
+                connection.createQuery(FOLD_RAW)
+                        .addParameter("name", name)
+                        .addParameter("id", id)
+                        .addParameter("from", from.getEpochSecond())
+                        .addParameter("to", rawExpiry.getEpochSecond())
+                        .executeUpdate();
+                if (partitions == null) {
+                    deleted += purger.purge(connection, "login_status", "server_id=:id AND ts < :ts", "server_id, ts",
+                            Map.of("id", id, "ts", rawExpiry.getEpochSecond()));
+                }
+                connection.createQuery(FOLD_HOURLY)
+                        .addParameter("name", name)
+                        .addParameter("to", hourlyExpiry)
+                        .executeUpdate();
+                deleted += purger.purge(connection, "login_status_hourly", "server=:name AND period < :period", "server, period",
+                        Map.of("name", name, "period", hourlyExpiry));
+                if (dailyExpiry != null) {
+                    deleted += purger.purge(connection, "login_status_daily", "server=:name AND period < :period", "server, period",
+                            Map.of("name", name, "period", dailyExpiry));
+                    deleted += transitionLog.discardExpired(connection, purger, id, dailyExpiry);
+                }
+                serversDone++;
+            }
+            if (partitions != null) {
+                partitions.maintain(connection, rawExpiry);
+            }
+            previousRawExpiry = rawExpiry;
+            deleted += purger.purge(connection, "ping_status", "ts < :ts", "ts, server_id",
+                    Map.of("ts", rawExpiry.getEpochSecond()));
+            if (dailyExpiry != null) {
+                connection.createQuery("DELETE FROM monitor_offline WHERE end < :end")
+                        .addParameter("end", dailyExpiry)
+                        .executeUpdate();
+            }
+            LOGGER.info("compacted history of " + servers.size() + " servers in " + (System.currentTimeMillis() - start) + "ms. deleted " + deleted + " rows");
+        } catch (Exception e) {
+            LOGGER.warn("unable to compact history", e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Credentials;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * The credentials and their domains as last loaded from or written to the store. Readers get an
+ * immutable snapshot without locking; writers replace it once the store has accepted the change,
+ * so the web pages never need a database round trip to list or look up domains. The catalog stays
+ * empty and unloaded until the store could be read once.
+ */
+class CredentialCatalog {
+
+    private final Object writeLock = new Object();
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+    private volatile boolean loaded = false;
+
+    /**
+     * Replaces the catalog with what the supplier read from the store unless it returned null.
+     * Runs under the write lock so that a concurrent add or remove is not lost.
+     *
+     * @return true if the catalog is loaded
+     */
+    boolean load(Supplier<List<Credentials>> store) {
+        synchronized (writeLock) {
+            final List<Credentials> credentials = store.get();
+            if (credentials == null) {
+                return false;
+            }
+            snapshot = new Snapshot(credentials);
+            loaded = true;
+            return true;
+        }
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    List<Credentials> getCredentials() {
+        return snapshot.credentials;
+    }
+
+    List<String> getDomains() {
+        return snapshot.domains;
+    }
+
+    boolean exists(String domain) {
+        return snapshot.domainSet.contains(domain);
+    }
+
+    void add(Credentials credentials) {
+        synchronized (writeLock) {
+            if (snapshot.credentials.contains(credentials)) {
+                return;
+            }
+            final List<Credentials> list = new ArrayList<>(snapshot.credentials);
+            list.add(credentials);
+            snapshot = new Snapshot(list);
+        }
+    }
+
+    void remove(Credentials credentials) {
+        synchronized (writeLock) {
+            final List<Credentials> list = new ArrayList<>(snapshot.credentials);
+            list.removeIf(Predicate.isEqual(credentials));
+            snapshot = new Snapshot(list);
+        }
+    }
+
+    private static class Snapshot {
+        private final List<Credentials> credentials;
+        private final List<String> domains;
+        private final Set<String> domainSet;
+
+        private Snapshot(List<Credentials> credentials) {
+            final List<String> domains = new ArrayList<>(credentials.size());
+            for (Credentials c : credentials) {
+                domains.add(c.getJid().getDomain());
+            }
+            this.credentials = Collections.unmodifiableList(new ArrayList<>(credentials));
+            this.domains = Collections.unmodifiableList(domains);
+            this.domainSet = Collections.unmodifiableSet(new HashSet<>(domains));
+        }
+    }
+}
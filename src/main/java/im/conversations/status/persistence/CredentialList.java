@@ -0,0 +1,95 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Credentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Credentials for the stores that don't keep them in a database. If a file is given it is
+ * rewritten on every change, one tab separated jid and password per line.
+ */
+class CredentialList {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialList.class);
+
+    private final Path file;
+    private final List<Credentials> credentials = new ArrayList<>();
+
+    CredentialList(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    final int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        credentials.add(new Credentials(line.substring(0, tab), line.substring(tab + 1)));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("unable to load credentials from " + file, e);
+            }
+        }
+    }
+
+    synchronized List<Credentials> get() {
+        return new ArrayList<>(credentials);
+    }
+
+    synchronized List<String> getDomains() {
+        return credentials.stream().map(c -> c.getJid().getDomain()).collect(Collectors.toList());
+    }
+
+    synchronized boolean exists(String domain) {
+        return credentials.stream().anyMatch(c -> c.getJid().getDomain().equals(domain));
+    }
+
+    synchronized boolean add(Credentials c) {
+        credentials.add(c);
+        if (save()) {
+            return true;
+        }
+        credentials.remove(credentials.size() - 1);
+        return false;
+    }
+
+    synchronized boolean remove(Credentials c) {
+        final int index = credentials.indexOf(c);
+        if (index < 0) {
+            return false;
+        }
+        credentials.remove(index);
+        if (save()) {
+            return true;
+        }
+        credentials.add(index, c);
+        return false;
+    }
+
+    private boolean save() {
+        if (file == null) {
+            return true;
+        }
+        final StringBuilder content = new StringBuilder();
+        for (Credentials c : credentials) {
+            content.append(c.getJid().toEscapedString()).append('\t').append(c.getPassword()).append('\n');
+        }
+        try {
+            final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("unable to save credentials to " + file, e);
+            return false;
+        }
+    }
+}
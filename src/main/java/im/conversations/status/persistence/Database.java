@@ -1,15 +1,13 @@
 package im.conversations.status.persistence;
 
-import com.zaxxer.hikari.HikariDataSource;
 import im.conversations.status.Main;
 import im.conversations.status.pojo.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sql2o.Connection;
-import org.sql2o.Sql2o;
-import org.sql2o.Sql2oException;
-import rocks.xmpp.addr.Jid;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
@@ -18,28 +16,64 @@ import java.util.stream.Stream;
 
 public class Database {
 
-    private static final String CREATE_LOGIN_STATUS = "CREATE TABLE IF NOT EXISTS login_status (server VARCHAR(255), timestamp DATETIME, status INTEGER, index server_index(server))";
-    private static final String CREATE_CREDENTIALS = "CREATE TABLE IF NOT EXISTS credentials (username VARCHAR(255), domain VARCHAR(255), password VARCHAR(255))";
-
     private static final Logger LOGGER = LoggerFactory.getLogger(Database.class);
     private static final Database INSTANCE = new Database();
-    private final Sql2o database;
+    private final StatusStore store;
     private final HashMap<String, ServerStatus> serverStatusMap = new HashMap<>();
     private final HashMap<String, HistoricalLoginStatus> serverHistoricalLoginStatusMap = new LinkedHashMap<>();
+    private volatile Map<String, Map<String, HistoricalLoginStatus>> historicalPingStatusMap = Collections.emptyMap();
+    private final WriteBehindQueue writeBehindQueue;
+    private final CredentialCatalog catalog;
+    private final StatusSnapshot statusSnapshot;
+    private final HistoricalSnapshot historicalSnapshot;
+    private final SampleSpool spool;
 
     private Database() {
         final Configuration config = Configuration.getInstance();
-        final HikariDataSource dataSource = new HikariDataSource();
-        dataSource.setJdbcUrl(config.getDbUrl());
-        dataSource.setUsername(config.getDbUsername());
-        dataSource.setPassword(config.getDbPassword());
-        dataSource.setMaximumPoolSize(3);
-        this.database = new Sql2o(dataSource);
-        try (Connection connection = this.database.open()) {
-            connection.createQuery(CREATE_LOGIN_STATUS).executeUpdate();
-            connection.createQuery(CREATE_CREDENTIALS).executeUpdate();
-        } catch (Exception e) {
-            LOGGER.error("unable initialize database", e);
+        this.store = createStore(config);
+        this.catalog = new CredentialCatalog();
+        this.catalog.load(store::getCredentials);
+        this.statusSnapshot = new StatusSnapshot(storageDirectory(config).resolve("status.snapshot"));
+        this.historicalSnapshot = new HistoricalSnapshot(storageDirectory(config).resolve("historical.snapshot"));
+        this.spool = new SampleSpool(storageDirectory(config).resolve("samples.spool"),
+                config.getWriteBatchSize(),
+                config.getSpoolRetryInterval(),
+                store::write,
+                store::isAvailable);
+        this.writeBehindQueue = new WriteBehindQueue(config.getWriteQueueCapacity(),
+                config.getWriteBatchSize(),
+                config.getWriteFlushInterval(),
+                samples -> {
+                    spool.write(samples);
+                    statusSnapshot.flush();
+                });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writeBehindQueue.close();
+            store.close();
+        }, "write-behind-flush"));
+    }
+
+    private static Path storageDirectory(Configuration config) {
+        return Paths.get(config.getStoragePath() == null ? "." : config.getStoragePath());
+    }
+
+    private static StatusStore createStore(Configuration config) {
+        switch (config.getStorage()) {
+            case "memory":
+                return new MemoryStatusStore();
+            case "file":
+                final Path storagePath = storageDirectory(config);
+                try {
+                    return new FileStatusStore(storagePath);
+                } catch (IOException e) {
+                    LOGGER.error("unable to open storage under " + storagePath + ". falling back to memory", e);
+                    return new MemoryStatusStore();
+                }
+            case "jdbc":
+                return new JdbcStatusStore(config);
+            default:
+                LOGGER.warn("unknown storage " + config.getStorage() + ". using jdbc");
+                return new JdbcStatusStore(config);
         }
     }
 
@@ -47,32 +81,47 @@ public class Database {
         return INSTANCE;
     }
 
-    public void put(String server, ServerStatus serverStatus) {
+    /**
+     * Shows the latest status recorded before the last shutdown until the servers have been
+     * checked again.
+     */
+    public void restoreServerStatus() {
+        final Map<String, ServerStatus> restored = statusSnapshot.load();
+        int count = 0;
         synchronized (serverStatusMap) {
-            serverStatusMap.put(server, serverStatus);
+            for (Map.Entry<String, ServerStatus> entry : restored.entrySet()) {
+                if (!catalog.isLoaded() || catalog.exists(entry.getKey())) {
+                    serverStatusMap.putIfAbsent(entry.getKey(), entry.getValue());
+                    ++count;
+                }
+            }
         }
-        try (Connection connection = this.database.beginTransaction(java.sql.Connection.TRANSACTION_SERIALIZABLE)) {
-            connection.createQuery("INSERT INTO login_status(server,timestamp,status) VALUES(:server,:timestamp,:status)")
-                    .bind(serverStatus.getLoginStatus())
-                    .addParameter("server", server)
-                    .executeUpdate();
-            connection.commit();
-        } catch (final Exception e) {
-            LOGGER.warn("unable to write server status to database", e);
+        LOGGER.info("restored the status of " + count + " servers");
+    }
+
+    /**
+     * Records a check result. Its sample stands for the time until the next check, so that uptime
+     * stays correct when servers are checked at different rates and a failure that is re-checked
+     * quickly only counts for the short wait before the re-check.
+     *
+     * @param next the delay until the server is checked again
+     */
+    public void put(String server, ServerStatus serverStatus, Duration next) {
+        synchronized (serverStatusMap) {
+            serverStatusMap.put(server, serverStatus);
         }
+        statusSnapshot.put(server, serverStatus);
+        final LoginStatus loginStatus = serverStatus.getLoginStatus();
+        final long weight = Math.max(1, next.getSeconds());
+        writeBehindQueue.offer(new Sample(server, loginStatus.getTimestamp(), loginStatus.getStatus(), weight, serverStatus.getPingResults()));
     }
 
     public boolean put(Credentials credentials) {
-        try (Connection connection = this.database.open()) {
-            connection.createQuery("INSERT into credentials(username,domain,password) VALUES(:username,:domain,:password)")
-                    .addParameter("username", credentials.getJid().getEscapedLocal())
-                    .addParameter("domain", credentials.getJid().getDomain())
-                    .addParameter("password", credentials.getPassword())
-                    .executeUpdate();
-        } catch (Exception ex) {
+        if (!store.put(credentials)) {
             return false;
         }
-        Main.scheduleStatusCheck();
+        catalog.add(credentials);
+        Main.scheduleStatusCheck(credentials);
         return true;
     }
 
@@ -82,98 +131,105 @@ public class Database {
         }
     }
 
-    public double getHistoricalLoginStatus(String server, Duration duration) throws HistoricalDataNotAvailableException {
-        try (Connection connection = this.database.open()) {
-            final Instant start = Instant.now().minus(duration);
-            final boolean exists = connection.createQuery("select exists(SELECT status FROM login_status WHERE server=:server and timestamp < :start)")
-                    .addParameter("server", server)
-                    .addParameter("start", start)
-                    .executeScalar(Boolean.class);
-            if (!exists) {
-                throw new HistoricalDataNotAvailableException("Historical data does not reach back to " + start.toString());
-            }
-            final List<Boolean> status = connection.createQuery("SELECT status FROM login_status WHERE server=:server and timestamp >= :start")
-                    .addParameter("server", server)
-                    .addParameter("start", start)
-                    .executeAndFetch(Boolean.class);
-            final int count = status.size();
-            if (count == 0) {
-                throw new HistoricalDataNotAvailableException("No information available for time span");
-            }
-            final long maxDataPoints = duration.getSeconds() / 120; //every 2 minutes
-            final long needed = maxDataPoints / 2;
-            if (count < needed) {
-                throw new HistoricalDataNotAvailableException("Not enough data points. " + count + " / " + needed);
+    /**
+     * Shows the historical uptime as last calculated before the last shutdown until it is
+     * calculated again.
+     *
+     * @return when the restored uptime was calculated or null if there was none
+     */
+    public Instant restoreHistoricalLoginStatus() {
+        final Map<String, HistoricalLoginStatus> restored = new HashMap<>();
+        final Instant calculated = historicalSnapshot.load(restored);
+        synchronized (serverHistoricalLoginStatusMap) {
+            for (Map.Entry<String, HistoricalLoginStatus> entry : restored.entrySet()) {
+                if (!catalog.isLoaded() || catalog.exists(entry.getKey())) {
+                    serverHistoricalLoginStatusMap.putIfAbsent(entry.getKey(), entry.getValue());
+                }
             }
-            final double successes = status.stream().filter(s -> s).count();
-            return (successes / count) * 100;
-        } catch (Sql2oException e) {
-            LOGGER.error("Unable to get historical data for " + server, e);
-            throw new HistoricalDataNotAvailableException(e);
         }
+        if (calculated != null) {
+            LOGGER.info("restored historical data of " + restored.size() + " servers calculated at " + calculated);
+        }
+        return calculated;
     }
 
-    public void discardExpired() {
-        try (Connection connection = this.database.open()) {
-            connection.createQuery("delete from login_status where timestamp < :timestamp")
-                    .addParameter("timestamp", Instant.now().minus(Duration.ofDays(366)))
-                    .executeUpdate();
+    public void saveHistoricalLoginStatus(Instant calculated) {
+        final Map<String, HistoricalLoginStatus> statuses;
+        synchronized (serverHistoricalLoginStatusMap) {
+            statuses = new TreeMap<>(serverHistoricalLoginStatusMap);
         }
+        historicalSnapshot.save(calculated, statuses);
+    }
+
+    public Map<String, HistoricalLoginStatus> getHistoricalLoginStatus() {
+        return store.getHistoricalLoginStatus(Instant.now());
     }
 
-    public List<Jid> getPingTargets() {
-        return Stream.concat(
-                getDomains().stream().map(Jid::ofDomain),
-                Configuration.getInstance().getAdditionalDomains().stream())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+    public Map<String, Map<String, HistoricalLoginStatus>> getHistoricalPingStatus() {
+        return store.getHistoricalPingStatus(Instant.now());
+    }
+
+    public void putHistoricalPingStatus(Map<String, Map<String, HistoricalLoginStatus>> historicalPingStatus) {
+        this.historicalPingStatusMap = historicalPingStatus;
+    }
+
+    /**
+     * @return how well the given server could be reached from every server that pinged it
+     */
+    public Map<String, HistoricalLoginStatus> getHistoricalPingStatus(String target) {
+        return Collections.unmodifiableMap(new TreeMap<>(historicalPingStatusMap.getOrDefault(target, Collections.emptyMap())));
+    }
+
+    /**
+     * Records a span of time in which this node had no network connectivity and thus didn't check
+     * any server. Such spans don't count against the amount of data needed for historical uptime.
+     */
+    public void putMonitorOffline(Instant start, Instant end) {
+        store.putMonitorOffline(start, end);
+    }
+
+    public List<Incident> getIncidents(String server) {
+        return store.getIncidents(server, Instant.now().minus(Duration.ofDays(366)));
+    }
+
+    public Instant getCleanSince(String server) {
+        return store.getCleanSince(server);
+    }
+
+    public void compact() {
+        store.compact(Retention.of(Configuration.getInstance()));
     }
 
     public List<String> getDomains() {
-        try (Connection connection = this.database.open()) {
-            return connection.createQuery("select domain from credentials")
-                    .executeAndFetch(String.class);
-        } catch (Exception e) {
-            LOGGER.error("unable to load domains from database", e);
-            return Collections.emptyList();
-        }
+        return catalog.getDomains();
+    }
+
+    /**
+     * Reads the credentials from the store again if the previous attempt failed.
+     *
+     * @return true if the credentials are loaded
+     */
+    public boolean loadCredentials() {
+        return catalog.isLoaded() || catalog.load(store::getCredentials);
     }
 
     public List<Credentials> getCredentials() {
-        try (Connection connection = this.database.open()) {
-            return connection
-                    .createQuery("SELECT concat(username,\"@\",domain) as jid,password from credentials")
-                    .executeAndFetch(Credentials.class);
-        } catch (Exception ex) {
-            LOGGER.error("Unable to load credentials from database", ex);
-            return Collections.emptyList();
-        }
+        return catalog.getCredentials();
     }
 
     public boolean exists(String domain) {
-        try (Connection connection = this.database.open()) {
-            return connection.createQuery("select exists (select domain from credentials where domain=:domain)")
-                    .addParameter("domain", domain)
-                    .executeScalar(Boolean.class);
-        }
+        return catalog.exists(domain);
     }
 
     public boolean delete(Credentials credentials) {
-        try (Connection connection = this.database.open()) {
-            final String SQL = "DELETE FROM credentials WHERE username=:username AND domain=:domain AND password = :password";
-            int numRows = connection.createQuery(SQL)
-                    .addParameter("username", credentials.getJid().getEscapedLocal())
-                    .addParameter("domain", credentials.getJid().getDomain())
-                    .addParameter("password", credentials.getPassword())
-                    .executeUpdate().getResult();
-            if (numRows == 0) {
-                return false;
-            }
-        } catch (Exception ex) {
+        if (!store.delete(credentials)) {
             return false;
         }
-        Main.scheduleStatusCheck();
+        catalog.remove(credentials);
+        if (!catalog.exists(credentials.getJid().getDomain())) {
+            statusSnapshot.remove(credentials.getJid().getDomain());
+        }
+        Main.cancelStatusCheck(credentials);
         return true;
     }
 
@@ -0,0 +1,67 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense integer ids for server names, for the stores that don't keep them in a database. If a
+ * file is given every new name is appended to it, so the line number is the id.
+ */
+class DenseIds {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DenseIds.class);
+
+    private final Path file;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    DenseIds(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try {
+                for (String name : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    ids.put(name, names.size());
+                    names.add(name);
+                }
+            } catch (IOException e) {
+                LOGGER.error("unable to read ids from " + file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the id of the name or -1 if a new id could not be stored. Handing it out anyway would
+     * shift every later id after a restart.
+     */
+    synchronized int get(String name) {
+        final Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (file != null) {
+            try {
+                Files.write(file, (name + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOGGER.warn("unable to store id of " + name, e);
+                return -1;
+            }
+        }
+        ids.put(name, names.size());
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    synchronized String getName(int id) {
+        return id < names.size() ? names.get(id) : null;
+    }
+}
@@ -0,0 +1,167 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Credentials;
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import im.conversations.status.pojo.Incident;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps everything in plain files under the storage path: the login history in a
+ * {@link BitmapStore}, the credentials and the monitor offline spans in small text files.
+ */
+public class FileStatusStore implements StatusStore {
+
+    private final BitmapStore bitmapStore;
+    private final CredentialList credentials;
+    private final OfflineSpans offline;
+    private final DenseIds ids;
+    private final PingLog pingLog;
+
+    FileStatusStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.bitmapStore = new BitmapStore(directory.resolve("history"));
+        this.credentials = new CredentialList(directory.resolve("credentials"));
+        this.offline = new OfflineSpans(directory.resolve("monitor_offline"));
+        this.pingLog = new PingLog(directory.resolve("pings"));
+        this.ids = new DenseIds(directory.resolve("pings").resolve("ids"));
+    }
+
+    @Override
+    public boolean write(List<Sample> samples) {
+        synchronized (bitmapStore) {
+            for (Sample sample : samples) {
+                if (!bitmapStore.mark(sample.getServer(), sample.getTimestamp(), sample.getStatus(), sample.getWeight())) {
+                    // marking is idempotent, so the whole batch can be written again later
+                    return false;
+                }
+            }
+        }
+        final List<PingLog.Row> rows = new ArrayList<>();
+        for (Sample sample : samples) {
+            if (!sample.getPingResults().isEmpty()) {
+                if (ids.get(sample.getServer()) < 0 || sample.getPingResults().stream().anyMatch(p -> ids.get(p.getServer().getDomain()) < 0)) {
+                    return false;
+                }
+                final BitSet[] encoded = PingMatrix.encode(sample.getPingResults(), ids::get);
+                rows.add(new PingLog.Row(ids.get(sample.getServer()), sample.getTimestamp(), sample.getWeight(), encoded[0], encoded[1]));
+            }
+        }
+        return pingLog.append(rows);
+    }
+
+    @Override
+    public Map<String, HistoricalLoginStatus> getHistoricalLoginStatus(Instant now) {
+        final Map<Duration, Long> offlineSeconds = new HashMap<>();
+        final Map<String, HistoricalLoginStatus> result = new HashMap<>();
+        for (String server : bitmapStore.getKeys()) {
+            final Instant first = bitmapStore.getFirst(server);
+            final Map<Duration, Double> map = new HashMap<>();
+            for (int d : HistoricalLoginStatus.DURATIONS) {
+                final Duration duration = Duration.of(d, HistoricalLoginStatus.UNIT);
+                final Instant start = now.minus(duration);
+                if (first == null || !first.isBefore(start)) {
+                    continue;
+                }
+                final Availability availability = bitmapStore.getAvailability(server, start, now);
+                try {
+                    final long seconds = offlineSeconds.computeIfAbsent(duration, k -> offline.secondsSince(start));
+                    map.put(duration, availability.getPercentage(duration.minusSeconds(seconds)));
+                } catch (HistoricalDataNotAvailableException e) {
+                    //ignore information not available
+                }
+            }
+            result.put(server, new HistoricalLoginStatus(map));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Map<String, HistoricalLoginStatus>> getHistoricalPingStatus(Instant now) {
+        final PingMatrix matrix = new PingMatrix(now);
+        pingLog.read(matrix.getFrom(), matrix);
+        return matrix.result(ids::getName, offline::secondsSince);
+    }
+
+    @Override
+    public List<Incident> getIncidents(String server, Instant from) {
+        final List<Incident> incidents = new ArrayList<>();
+        for (Instant[] run : bitmapStore.getDownRuns(server, from)) {
+            incidents.add(new Incident(server, run[0], run[1]));
+        }
+        Collections.reverse(incidents);
+        return incidents;
+    }
+
+    @Override
+    public Instant getCleanSince(String server) {
+        final Instant lastDown = bitmapStore.getLastDown(server);
+        return lastDown != null ? lastDown : bitmapStore.getFirst(server);
+    }
+
+    @Override
+    public void putMonitorOffline(Instant start, Instant end) {
+        offline.add(start, end);
+    }
+
+    /**
+     * History files hold about a year per 64 KB segment, so they aren't downsampled: two bits per
+     * slot are already smaller than an hourly rollup. They are kept as long as the longest tier,
+     * the daily rollups, and trimmed once those expire. The ping log is kept like raw samples.
+     */
+    @Override
+    public void compact(Retention retention) {
+        final Instant now = Instant.now();
+        pingLog.discardBefore(retention.getRawExpiry(now));
+        final Instant dailyExpiry = retention.getDailyExpiry(now);
+        synchronized (bitmapStore) {
+            if (dailyExpiry != null) {
+                bitmapStore.discardBefore(dailyExpiry);
+            }
+            bitmapStore.force();
+        }
+        if (dailyExpiry != null) {
+            offline.discardBefore(dailyExpiry);
+        }
+    }
+
+    @Override
+    public void close() {
+        bitmapStore.close();
+    }
+
+    @Override
+    public List<Credentials> getCredentials() {
+        return credentials.get();
+    }
+
+    @Override
+    public List<String> getDomains() {
+        return credentials.getDomains();
+    }
+
+    @Override
+    public boolean exists(String domain) {
+        return credentials.exists(domain);
+    }
+
+    @Override
+    public boolean put(Credentials credentials) {
+        return this.credentials.add(credentials);
+    }
+
+    @Override
+    public boolean delete(Credentials credentials) {
+        return this.credentials.remove(credentials);
+    }
+}
@@ -0,0 +1,80 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * The historical uptime of every server as last calculated, so that a restarted monitor has
+ * something to show until it calculates it again. The first line is the epoch second of the
+ * calculation, every other line a server followed by tab separated days=uptime pairs.
+ */
+class HistoricalSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoricalSnapshot.class);
+
+    private final Path file;
+
+    HistoricalSnapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return when the uptime in the given map was calculated or null if there was nothing to load
+     */
+    synchronized Instant load(Map<String, HistoricalLoginStatus> statuses) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) {
+                return null;
+            }
+            final Instant calculated = Instant.ofEpochSecond(Long.parseLong(lines.get(0).trim()));
+            for (String line : lines.subList(1, lines.size())) {
+                final String[] parts = line.split("\t");
+                final Map<Duration, Double> map = new HashMap<>();
+                for (int i = 1; i < parts.length; ++i) {
+                    final int separator = parts[i].indexOf('=');
+                    map.put(Duration.of(Integer.parseInt(parts[i].substring(0, separator)), HistoricalLoginStatus.UNIT), Double.parseDouble(parts[i].substring(separator + 1)));
+                }
+                statuses.put(parts[0], new HistoricalLoginStatus(map));
+            }
+            return calculated;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("unable to read historical data from " + file, e);
+            return null;
+        }
+    }
+
+    synchronized void save(Instant calculated, Map<String, HistoricalLoginStatus> statuses) {
+        final StringBuilder content = new StringBuilder();
+        content.append(calculated.getEpochSecond()).append('\n');
+        for (Map.Entry<String, HistoricalLoginStatus> entry : statuses.entrySet()) {
+            content.append(entry.getKey());
+            for (int days : HistoricalLoginStatus.DURATIONS) {
+                if (entry.getValue().isAvailableForDuration(days)) {
+                    content.append('\t').append(days).append('=').append(entry.getValue().getForDuration(days));
+                }
+            }
+            content.append('\n');
+        }
+        try {
+            final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("unable to save historical data to " + file, e);
+        }
+    }
+}
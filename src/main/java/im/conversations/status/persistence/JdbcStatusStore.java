@@ -0,0 +1,476 @@
+package im.conversations.status.persistence;
+
+import com.zaxxer.hikari.HikariDataSource;
+import im.conversations.status.Main;
+import im.conversations.status.pojo.Configuration;
+import im.conversations.status.pojo.Credentials;
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import im.conversations.status.pojo.Incident;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.Row;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+public class JdbcStatusStore implements StatusStore {
+
+    private static final String CREATE_LOGIN_STATUS_HOURLY = "CREATE TABLE IF NOT EXISTS login_status_hourly (server VARCHAR(255), period DATETIME, samples INTEGER, successes INTEGER, total INTEGER, up INTEGER, first DATETIME, last DATETIME, PRIMARY KEY(server, period))";
+    private static final String CREATE_LOGIN_STATUS_DAILY = "CREATE TABLE IF NOT EXISTS login_status_daily (server VARCHAR(255), period DATETIME, samples INTEGER, successes INTEGER, total INTEGER, up INTEGER, first DATETIME, last DATETIME, PRIMARY KEY(server, period))";
+    private static final String INDEX_LOGIN_STATUS_HOURLY = "CREATE INDEX IF NOT EXISTS period_index ON login_status_hourly(period)";
+    private static final String BACKFILL_ROLLUP = "INSERT INTO %s(server,period,samples,successes,total,up,first,last) SELECT s.name, from_unixtime(floor(l.ts/%d)*%2$d), count(*), sum(l.status), sum(l.weight), sum(l.weight*l.status), from_unixtime(min(l.ts)), from_unixtime(max(l.ts)) FROM login_status l JOIN servers s ON s.id=l.server_id GROUP BY l.server_id,2";
+    private static final String BACKFILL_ROLLUP_LEGACY = "INSERT INTO %s(server,period,samples,successes,total,up,first,last) SELECT server, from_unixtime(floor(unix_timestamp(timestamp)/%d)*%2$d), count(*), sum(status), sum(weight), sum(weight*status), min(timestamp), max(timestamp) FROM login_status GROUP BY 1,2";
+    private static final String CREATE_MONITOR_OFFLINE = "CREATE TABLE IF NOT EXISTS monitor_offline (start DATETIME, end DATETIME, index end_index(end))";
+    private static final String CREATE_PING_STATUS = "CREATE TABLE IF NOT EXISTS ping_status (ts INT UNSIGNED NOT NULL, server_id INT UNSIGNED NOT NULL, weight SMALLINT UNSIGNED NOT NULL, attempted VARBINARY(1024) NOT NULL, reached VARBINARY(1024) NOT NULL, PRIMARY KEY(ts, server_id))";
+    private static final String CREATE_CREDENTIALS = "CREATE TABLE IF NOT EXISTS credentials (username VARCHAR(255), domain VARCHAR(255), password VARCHAR(255))";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcStatusStore.class);
+    private final Sql2o writes;
+    private final Sql2o analytics;
+    private final Sql2o interactive;
+    private final LoginStatusPartitions partitions;
+    private final ServerIds serverIds;
+    private final TransitionLog transitionLog;
+    private final Compactor compactor;
+
+    JdbcStatusStore(Configuration config) {
+        final PoolMetrics poolMetrics = new PoolMetrics();
+        this.writes = createPool("write", config.getDbUrl(), config.getWritePoolSize(), false, config, poolMetrics);
+        this.interactive = createPool("interactive", config.getDbUrl(), config.getInteractivePoolSize(), false, config, poolMetrics);
+        if (config.getReplicaDbUrl() == null) {
+            this.analytics = createPool("analytical", config.getDbUrl(), config.getAnalyticalPoolSize(), false, config, poolMetrics);
+        } else {
+            LOGGER.info("reading historical data from replica " + config.getReplicaDbUrl());
+            this.analytics = createPool("analytical", config.getReplicaDbUrl(), config.getAnalyticalPoolSize(), true, config, poolMetrics);
+        }
+        // ids are created outside of the write transaction that needs them, so they get a pool that can't be exhausted by writers
+        this.serverIds = new ServerIds(interactive);
+        this.transitionLog = new TransitionLog(config.getHeartbeatInterval(), runGap(config));
+        this.partitions = config.isPartitionedHistory() ? new LoginStatusPartitions(config.getPartitionsAhead()) : null;
+        final LoginStatusSchema schema = new LoginStatusSchema(writes, partitions, this::backfillTransitions);
+        this.compactor = new Compactor(writes, partitions, transitionLog, new Purger(config.getPurgeChunkSize(), config.getPurgePause()));
+        try (Connection connection = this.writes.open()) {
+            schema.create(connection);
+            connection.createQuery(CREATE_PING_STATUS).executeUpdate();
+            connection.createQuery(TransitionLog.CREATE_TRANSITIONS).executeUpdate();
+            connection.createQuery(TransitionLog.CREATE_INCIDENTS).executeUpdate();
+            connection.createQuery(CREATE_CREDENTIALS).executeUpdate();
+            connection.createQuery(CREATE_MONITOR_OFFLINE).executeUpdate();
+            connection.createQuery(CREATE_LOGIN_STATUS_HOURLY).executeUpdate();
+            connection.createQuery(CREATE_LOGIN_STATUS_DAILY).executeUpdate();
+            connection.createQuery(INDEX_LOGIN_STATUS_HOURLY).executeUpdate();
+        } catch (Exception e) {
+            LOGGER.error("unable initialize database", e);
+        }
+        backfillRollups();
+        if (!schema.isMigrating()) {
+            backfillTransitions();
+        }
+        schema.migrate();
+    }
+
+    /**
+     * Writes (including compaction), historical calculations and web requests each get a pool of
+     * their own, so that neither a long scan nor a big delete can keep the others waiting for a
+     * connection.
+     */
+    private static Sql2o createPool(String name, String url, int size, boolean readOnly, Configuration config, PoolMetrics poolMetrics) {
+        final HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(name);
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(config.getDbUsername());
+        dataSource.setPassword(config.getDbPassword());
+        dataSource.setMaximumPoolSize(Math.max(1, size));
+        dataSource.setReadOnly(readOnly);
+        dataSource.setMetricsTrackerFactory(poolMetrics);
+        return new Sql2o(dataSource);
+    }
+
+    @Override
+    public boolean write(List<Sample> samples) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO login_status(server_id,ts,status,weight) VALUES ");
+        for (int i = 0; i < samples.size(); ++i) {
+            sql.append(i == 0 ? "" : ",").append(String.format("(:server%1$d,:ts%1$d,:status%1$d,:weight%1$d)", i));
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE status=VALUES(status), weight=VALUES(weight)");
+        synchronized (transitionLog) {
+            return write(samples, sql.toString());
+        }
+    }
+
+    private boolean write(List<Sample> samples, String sql) {
+        try (Connection connection = this.writes.beginTransaction()) {
+            final Query query = connection.createQuery(sql);
+            for (int i = 0; i < samples.size(); ++i) {
+                final Sample sample = samples.get(i);
+                query.addParameter("server" + i, serverIds.getOrCreate(sample.getServer()))
+                        .addParameter("ts" + i, sample.getTimestamp().getEpochSecond())
+                        .addParameter("status" + i, sample.getStatus())
+                        .addParameter("weight" + i, sample.getWeight());
+            }
+            final List<Sample> inserted = withoutStored(connection, samples);
+            query.executeUpdate();
+            writeRollups(connection, "login_status_hourly", Rollup.of(inserted, ChronoUnit.HOURS));
+            writeRollups(connection, "login_status_daily", Rollup.of(inserted, ChronoUnit.DAYS));
+            writePings(connection, samples);
+            final Map<Integer, TransitionLog.State> transitions = transitionLog.write(connection, samples, serverIds::getOrCreate);
+            connection.commit();
+            transitionLog.apply(transitions);
+            return true;
+        } catch (final Exception e) {
+            LOGGER.warn("unable to write " + samples.size() + " server status to database", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try (Connection connection = this.writes.open()) {
+            return connection.getJdbcConnection().isValid(5);
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * The rollups are additive, so only samples that are not yet in login_status may be counted.
+     * Otherwise a batch replayed after a commit whose acknowledgement got lost would be counted
+     * twice.
+     */
+    private List<Sample> withoutStored(Connection connection, List<Sample> samples) {
+        final Set<Integer> ids = new HashSet<>();
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (Sample sample : samples) {
+            ids.add(serverIds.getOrCreate(sample.getServer()));
+            from = Math.min(from, sample.getTimestamp().getEpochSecond());
+            to = Math.max(to, sample.getTimestamp().getEpochSecond());
+        }
+        final Set<String> stored = new HashSet<>();
+        for (Row row : connection.createQuery("SELECT server_id, ts FROM login_status WHERE server_id IN (:ids) AND ts BETWEEN :from AND :to")
+                .addParameter("ids", ids)
+                .addParameter("from", from)
+                .addParameter("to", to)
+                .executeAndFetchTable().rows()) {
+            stored.add(row.getInteger("server_id") + ":" + row.getLong("ts"));
+        }
+        final List<Sample> inserted = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            if (stored.add(serverIds.getOrCreate(sample.getServer()) + ":" + sample.getTimestamp().getEpochSecond())) {
+                inserted.add(sample);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Writes one row per check with the pinged and the reached targets as bitsets over server ids.
+     */
+    private void writePings(Connection connection, List<Sample> samples) {
+        final List<Sample> withPings = new ArrayList<>();
+        for (Sample sample : samples) {
+            if (!sample.getPingResults().isEmpty()) {
+                withPings.add(sample);
+            }
+        }
+        if (withPings.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("INSERT INTO ping_status(ts,server_id,weight,attempted,reached) VALUES ");
+        for (int i = 0; i < withPings.size(); ++i) {
+            sql.append(i == 0 ? "" : ",").append(String.format("(:ts%1$d,:server%1$d,:weight%1$d,:attempted%1$d,:reached%1$d)", i));
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE weight=VALUES(weight), attempted=VALUES(attempted), reached=VALUES(reached)");
+        final Query query = connection.createQuery(sql.toString());
+        for (int i = 0; i < withPings.size(); ++i) {
+            final Sample sample = withPings.get(i);
+            final BitSet[] encoded = PingMatrix.encode(sample.getPingResults(), serverIds::getOrCreate);
+            query.addParameter("ts" + i, sample.getTimestamp().getEpochSecond())
+                    .addParameter("server" + i, serverIds.getOrCreate(sample.getServer()))
+                    .addParameter("weight" + i, sample.getWeight())
+                    .addParameter("attempted" + i, encoded[0].toByteArray())
+                    .addParameter("reached" + i, encoded[1].toByteArray());
+        }
+        query.executeUpdate();
+    }
+
+    private static void writeRollups(Connection connection, String table, List<Rollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("INSERT INTO " + table + "(server,period,samples,successes,total,up,first,last) VALUES ");
+        for (int i = 0; i < rollups.size(); ++i) {
+            sql.append(i == 0 ? "" : ",").append(String.format("(:server%1$d,:period%1$d,:samples%1$d,:successes%1$d,:total%1$d,:up%1$d,:first%1$d,:last%1$d)", i));
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE samples=samples+VALUES(samples), successes=successes+VALUES(successes), total=total+VALUES(total), up=up+VALUES(up), first=least(first,VALUES(first)), last=greatest(last,VALUES(last))");
+        final Query query = connection.createQuery(sql.toString());
+        for (int i = 0; i < rollups.size(); ++i) {
+            final Rollup rollup = rollups.get(i);
+            query.addParameter("server" + i, rollup.getServer())
+                    .addParameter("period" + i, rollup.getPeriod())
+                    .addParameter("samples" + i, rollup.getSamples())
+                    .addParameter("successes" + i, rollup.getSuccesses())
+                    .addParameter("total" + i, rollup.getTotal())
+                    .addParameter("up" + i, rollup.getUp())
+                    .addParameter("first" + i, rollup.getFirst())
+                    .addParameter("last" + i, rollup.getLast());
+        }
+        query.executeUpdate();
+    }
+
+    /**
+     * Builds the rollup tables from login_status the first time they are used.
+     */
+    private void backfillRollups() {
+        try (Connection connection = this.writes.beginTransaction()) {
+            final boolean empty = !connection.createQuery("select exists(select 1 from login_status_daily)").executeScalar(Boolean.class);
+            if (empty && connection.createQuery("select exists(select 1 from login_status)").executeScalar(Boolean.class)) {
+                LOGGER.info("building rollups from existing login status");
+                final String backfill = LoginStatusSchema.isLegacy(connection, "login_status") ? BACKFILL_ROLLUP_LEGACY : BACKFILL_ROLLUP;
+                connection.createQuery(String.format(backfill, "login_status_hourly", 3600)).executeUpdate();
+                connection.createQuery(String.format(backfill, "login_status_daily", 86400)).executeUpdate();
+            }
+            connection.commit();
+        } catch (Exception e) {
+            LOGGER.error("unable to build rollups", e);
+        }
+    }
+
+    /**
+     * Builds the runs of the history in login_status. Needs login_status complete and in the
+     * current layout, so while it is being migrated this runs once the copy has finished.
+     */
+    private void backfillTransitions() {
+        try (Connection connection = this.writes.open()) {
+            transitionLog.backfill(connection);
+        } catch (Exception e) {
+            LOGGER.error("unable to build transitions", e);
+        }
+    }
+
+    /**
+     * Twice the longest time the scheduler waits between two checks of a server. A longer
+     * silence means the monitor was not checking and ends the current run.
+     */
+    private static Duration runGap(Configuration config) {
+        return (config.isAdaptiveCadence() ? config.getMaxCheckInterval() : Main.CHECK_INTERVAL).multipliedBy(2);
+    }
+
+    @Override
+    public boolean put(Credentials credentials) {
+        try (Connection connection = this.interactive.open()) {
+            connection.createQuery("INSERT into credentials(username,domain,password) VALUES(:username,:domain,:password)")
+                    .addParameter("username", credentials.getJid().getEscapedLocal())
+                    .addParameter("domain", credentials.getJid().getDomain())
+                    .addParameter("password", credentials.getPassword())
+                    .executeUpdate();
+        } catch (Exception ex) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the uptime of every server for every duration in
+     * {@link HistoricalLoginStatus#DURATIONS} with one grouped query over the runs in
+     * login_transitions. Each run counts with the part of it that overlaps the window, as up or as
+     * down time depending on its status; time no run reaches (the monitor wasn't checking) counts
+     * as neither.
+     */
+    @Override
+    public Map<String, HistoricalLoginStatus> getHistoricalLoginStatus(Instant now) {
+        final List<Instant> starts = new ArrayList<>();
+        for (int d : HistoricalLoginStatus.DURATIONS) {
+            starts.add(now.minus(Duration.of(d, HistoricalLoginStatus.UNIT)));
+        }
+        final StringBuilder runs = new StringBuilder("SELECT s.name as server, min(t.ts) as first, count(*) as runs");
+        final StringBuilder offline = new StringBuilder("SELECT 0");
+        for (int i = 0; i < starts.size(); ++i) {
+            final String overlap = String.format("greatest(0, cast(least(t.last, :now) as signed) - cast(greatest(t.ts, :start%d) as signed))", i);
+            runs.append(", sum(").append(overlap).append(") as total").append(i);
+            runs.append(", sum(if(t.status=1, ").append(overlap).append(", 0)) as up").append(i);
+            offline.append(String.format(", coalesce(sum(if(end > :start%1$d, timestampdiff(SECOND, greatest(start,:start%1$d), end), 0)),0) as offline%1$d", i));
+        }
+        runs.append(" FROM login_transitions t JOIN servers s ON s.id=t.server_id WHERE t.last >= :earliest GROUP BY t.server_id, s.name");
+        offline.append(" FROM monitor_offline");
+        final Map<String, HistoricalLoginStatus> result = new HashMap<>();
+        try (Connection connection = this.analytics.open()) {
+            final Query offlineQuery = connection.createQuery(offline.toString());
+            final Query runsQuery = connection.createQuery(runs.toString())
+                    .addParameter("now", now.getEpochSecond())
+                    .addParameter("earliest", Collections.min(starts).getEpochSecond());
+            for (int i = 0; i < starts.size(); ++i) {
+                offlineQuery.addParameter("start" + i, starts.get(i));
+                runsQuery.addParameter("start" + i, starts.get(i).getEpochSecond());
+            }
+            final Row offlineRow = offlineQuery.executeAndFetchTable().rows().get(0);
+            for (Row row : runsQuery.executeAndFetchTable().rows()) {
+                final long first = row.getLong("first");
+                final Map<Duration, Double> map = new HashMap<>();
+                for (int i = 0; i < starts.size(); ++i) {
+                    if (first >= starts.get(i).getEpochSecond()) {
+                        continue;
+                    }
+                    final Availability availability = new Availability(row.getLong("runs"), row.getLong("total" + i), row.getLong("up" + i));
+                    try {
+                        final Duration covered = Duration.between(starts.get(i), now).minusSeconds(offlineRow.getLong("offline" + i));
+                        map.put(Duration.of(HistoricalLoginStatus.DURATIONS.get(i), HistoricalLoginStatus.UNIT), availability.getPercentage(covered));
+                    } catch (HistoricalDataNotAvailableException e) {
+                        //ignore information not available
+                    }
+                }
+                result.put(row.getString("server"), new HistoricalLoginStatus(map));
+            }
+        } catch (Sql2oException e) {
+            LOGGER.error("Unable to calculate historical data", e);
+        }
+        return result;
+    }
+
+    /**
+     * Streams the ping rows of the longest window instead of fetching them as one table.
+     */
+    @Override
+    public Map<String, Map<String, HistoricalLoginStatus>> getHistoricalPingStatus(Instant now) {
+        final PingMatrix matrix = new PingMatrix(now);
+        final Map<Integer, String> names = new HashMap<>();
+        try (Connection connection = this.analytics.open()) {
+            for (Row row : connection.createQuery("SELECT id, name FROM servers").executeAndFetchTable().rows()) {
+                names.put(row.getInteger("id"), row.getString("name"));
+            }
+            try (PreparedStatement statement = connection.getJdbcConnection().prepareStatement("SELECT server_id, ts, weight, attempted, reached FROM ping_status WHERE ts >= ?")) {
+                statement.setFetchSize(1000);
+                statement.setLong(1, matrix.getFrom().getEpochSecond());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        matrix.add(resultSet.getInt(1),
+                                Instant.ofEpochSecond(resultSet.getLong(2)),
+                                resultSet.getLong(3),
+                                BitSet.valueOf(resultSet.getBytes(4)),
+                                BitSet.valueOf(resultSet.getBytes(5)));
+                    }
+                }
+            }
+            return matrix.result(names::get, start -> getMonitorOffline(connection, start));
+        } catch (Exception e) {
+            LOGGER.error("Unable to calculate historical ping data", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Runs on the caller's connection; a second one from the same pool could wait for the caller
+     * to return its own, which it never does while waiting.
+     */
+    private static long getMonitorOffline(Connection connection, Instant start) {
+        try {
+            return connection.createQuery("SELECT coalesce(sum(timestampdiff(SECOND, greatest(start,:start), end)),0) FROM monitor_offline WHERE end > :start")
+                    .addParameter("start", start)
+                    .executeScalar(Long.class);
+        } catch (Exception e) {
+            LOGGER.warn("unable to read monitor offline time", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public void putMonitorOffline(Instant start, Instant end) {
+        try (Connection connection = this.interactive.open()) {
+            connection.createQuery("INSERT INTO monitor_offline(start,end) VALUES(:start,:end)")
+                    .addParameter("start", start)
+                    .addParameter("end", end)
+                    .executeUpdate();
+        } catch (Exception e) {
+            LOGGER.warn("unable to record monitor offline time", e);
+        }
+    }
+
+    @Override
+    public List<Incident> getIncidents(String server, Instant from) {
+        try (Connection connection = this.interactive.open()) {
+            final Integer id = serverIds.get(connection, server);
+            return id == null ? Collections.emptyList() : transitionLog.getIncidents(connection, id, server, from);
+        } catch (Exception e) {
+            LOGGER.warn("unable to load incidents of " + server, e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public Instant getCleanSince(String server) {
+        try (Connection connection = this.interactive.open()) {
+            final Integer id = serverIds.get(connection, server);
+            if (id == null) {
+                return null;
+            }
+            // a run of failures lasts until the first successful check after it
+            final Long ts = connection.createQuery("SELECT coalesce(max(case when status=0 then last end), min(ts)) FROM login_transitions WHERE server_id=:id")
+                    .addParameter("id", id)
+                    .executeScalar(Long.class);
+            return ts == null ? null : Instant.ofEpochSecond(ts);
+        } catch (Exception e) {
+            LOGGER.warn("unable to determine clean streak for " + server, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void compact(Retention retention) {
+        compactor.run(retention, Instant.now());
+    }
+
+    @Override
+    public List<String> getDomains() {
+        try (Connection connection = this.interactive.open()) {
+            return connection.createQuery("select domain from credentials")
+                    .executeAndFetch(String.class);
+        } catch (Exception e) {
+            LOGGER.error("unable to load domains from database", e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public List<Credentials> getCredentials() {
+        try (Connection connection = this.interactive.open()) {
+            return connection
+                    .createQuery("SELECT concat(username,\"@\",domain) as jid,password from credentials")
+                    .executeAndFetch(Credentials.class);
+        } catch (Exception ex) {
+            LOGGER.error("Unable to load credentials from database", ex);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(String domain) {
+        try (Connection connection = this.interactive.open()) {
+            return connection.createQuery("select exists (select domain from credentials where domain=:domain)")
+                    .addParameter("domain", domain)
+                    .executeScalar(Boolean.class);
+        }
+    }
+
+    @Override
+    public boolean delete(Credentials credentials) {
+        try (Connection connection = this.interactive.open()) {
+            final String SQL = "DELETE FROM credentials WHERE username=:username AND domain=:domain AND password = :password";
+            int numRows = connection.createQuery(SQL)
+                    .addParameter("username", credentials.getJid().getEscapedLocal())
+                    .addParameter("domain", credentials.getJid().getDomain())
+                    .addParameter("password", credentials.getPassword())
+                    .executeUpdate().getResult();
+            return numRows > 0;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+}
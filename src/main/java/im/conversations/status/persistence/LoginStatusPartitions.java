@@ -0,0 +1,92 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Keeps login_status range partitioned by month so that expiry is a DROP PARTITION instead of a
+ * DELETE that scans and locks the table. A catch-all partition at the end takes rows beyond the
+ * pre-created months and is split off into monthly partitions while it is still empty.
+ */
+class LoginStatusPartitions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginStatusPartitions.class);
+
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final String FUTURE = "pfuture";
+
+    private final int monthsAhead;
+
+    LoginStatusPartitions(int monthsAhead) {
+        this.monthsAhead = Math.max(1, monthsAhead);
+    }
+
+    /**
+     * @return the partition clause for a table holding rows from the given month on
+     */
+    String clause(YearMonth first) {
+        final YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(monthsAhead);
+        final StringBuilder definitions = new StringBuilder(" PARTITION BY RANGE (ts) (");
+        for (YearMonth month = first.isAfter(last) ? last : first; !month.isAfter(last); month = month.plusMonths(1)) {
+            definitions.append(definition(month)).append(", ");
+        }
+        return definitions.append(future()).append(")").toString();
+    }
+
+    /**
+     * Creates the partitions for the coming months and drops the ones that end before the expiry.
+     */
+    void maintain(Connection connection, Instant expiry) {
+        final List<String> partitions = getPartitions(connection);
+        if (!partitions.contains(FUTURE)) {
+            return;
+        }
+        final YearMonth now = YearMonth.now(ZoneOffset.UTC);
+        final StringBuilder added = new StringBuilder();
+        for (YearMonth month = now; !month.isAfter(now.plusMonths(monthsAhead)); month = month.plusMonths(1)) {
+            if (!partitions.contains(month.format(NAME)) && !hasLaterPartition(partitions, month)) {
+                added.append(definition(month)).append(", ");
+            }
+        }
+        if (added.length() > 0) {
+            connection.createQuery("ALTER TABLE login_status REORGANIZE PARTITION " + FUTURE + " INTO (" + added + future() + ")").executeUpdate();
+        }
+        final YearMonth expired = YearMonth.from(expiry.atOffset(ZoneOffset.UTC));
+        for (String partition : partitions) {
+            if (!partition.equals(FUTURE) && YearMonth.parse(partition, NAME).isBefore(expired)) {
+                connection.createQuery("ALTER TABLE login_status DROP PARTITION " + partition).executeUpdate();
+                LOGGER.info("dropped expired partition " + partition + " of login_status");
+            }
+        }
+    }
+
+    static boolean isPartitioned(Connection connection, String table) {
+        return connection.createQuery("SELECT exists(SELECT 1 FROM information_schema.partitions WHERE table_schema=database() AND table_name=:table AND partition_name IS NOT NULL)")
+                .addParameter("table", table)
+                .executeScalar(Boolean.class);
+    }
+
+    private static boolean hasLaterPartition(List<String> partitions, YearMonth month) {
+        return partitions.stream().anyMatch(p -> !p.equals(FUTURE) && YearMonth.parse(p, NAME).isAfter(month));
+    }
+
+    private static List<String> getPartitions(Connection connection) {
+        return connection.createQuery("SELECT partition_name FROM information_schema.partitions WHERE table_schema=database() AND table_name='login_status' AND partition_name IS NOT NULL ORDER BY partition_ordinal_position")
+                .executeAndFetch(String.class);
+    }
+
+    private static String definition(YearMonth month) {
+        return "PARTITION " + month.format(NAME) + " VALUES LESS THAN (" + month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond() + ")";
+    }
+
+    private static String future() {
+        return "PARTITION " + FUTURE + " VALUES LESS THAN (MAXVALUE)";
+    }
+}
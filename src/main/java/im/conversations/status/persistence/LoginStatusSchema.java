@@ -0,0 +1,181 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+
+/**
+ * Owns the layout of login_status: one row of (server_id, ts, status, weight) per sample with the
+ * server name moved to the servers table, ts in epoch seconds and the primary key on
+ * (server_id, ts). Optionally range partitioned by month.
+ * <p>
+ * A table with a different layout (the old one with server names and DATETIME timestamps, or
+ * with the other partitioning) is swapped with an empty table of the right layout at startup,
+ * so checks write to the new table right away. The old rows are then copied over in the
+ * background, server by server and one day at a time, each chunk a range read on an index that
+ * leads with the server. An interrupted copy is resumed on the next start.
+ */
+class LoginStatusSchema {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginStatusSchema.class);
+
+    private static final String SOURCE = "login_status_migrating";
+    private static final String DONE = "login_status_migrated";
+    private static final String CREATE = "CREATE TABLE %s (server_id INT UNSIGNED NOT NULL, ts INT UNSIGNED NOT NULL, status TINYINT NOT NULL, weight SMALLINT UNSIGNED NOT NULL DEFAULT 120, PRIMARY KEY(server_id, ts))";
+    private static final String ADD_LEGACY_WEIGHT = "ALTER TABLE login_status ADD COLUMN IF NOT EXISTS weight INTEGER NOT NULL DEFAULT 120";
+    private static final String INDEX_LEGACY = "ALTER TABLE " + SOURCE + " ADD INDEX IF NOT EXISTS server_timestamp_index(server, timestamp)";
+    private static final String RANGE_LEGACY = "SELECT unix_timestamp(min(timestamp)) as first, unix_timestamp(max(timestamp)) as last FROM " + SOURCE + " WHERE server=:name";
+    private static final String RANGE = "SELECT min(ts) as first, max(ts) as last FROM " + SOURCE + " WHERE server_id=:id";
+    private static final String COPY_LEGACY = "INSERT IGNORE INTO login_status(server_id,ts,status,weight) SELECT :id, unix_timestamp(timestamp), status, weight FROM " + SOURCE + " WHERE server=:name AND timestamp >= from_unixtime(:from) AND timestamp < from_unixtime(:to)";
+    private static final String COPY = "INSERT IGNORE INTO login_status(server_id,ts,status,weight) SELECT server_id, ts, status, weight FROM " + SOURCE + " WHERE server_id=:id AND ts >= :from AND ts < :to";
+    private static final long CHUNK = 86400;
+
+    private final Sql2o database;
+    private final LoginStatusPartitions partitions;
+    private final Runnable migrated;
+
+    /**
+     * @param migrated called once the old rows have been copied into login_status
+     */
+    LoginStatusSchema(Sql2o database, LoginStatusPartitions partitions, Runnable migrated) {
+        this.database = database;
+        this.partitions = partitions;
+        this.migrated = migrated;
+    }
+
+    /**
+     * Makes sure login_status and servers exist, in whatever layout login_status currently has.
+     */
+    void create(Connection connection) {
+        connection.createQuery(ServerIds.CREATE_SERVERS).executeUpdate();
+        if (!tableExists(connection, "login_status")) {
+            connection.createQuery(String.format(CREATE, "login_status") + partitionClause(YearMonth.now(ZoneOffset.UTC))).executeUpdate();
+        } else if (isLegacy(connection, "login_status")) {
+            connection.createQuery(ADD_LEGACY_WEIGHT).executeUpdate();
+        }
+    }
+
+    static boolean isLegacy(Connection connection, String table) {
+        return connection.createQuery("SELECT exists(SELECT 1 FROM information_schema.columns WHERE table_schema=database() AND table_name=:table AND column_name='server')")
+                .addParameter("table", table)
+                .executeScalar(Boolean.class);
+    }
+
+    /**
+     * Swaps login_status for a table with the configured layout if needed and starts copying the
+     * old rows.
+     */
+    void migrate() {
+        try (Connection connection = database.open()) {
+            final boolean legacy = isLegacy(connection, "login_status");
+            final boolean partitioned = LoginStatusPartitions.isPartitioned(connection, "login_status");
+            if (legacy || partitioned != (partitions != null)) {
+                if (tableExists(connection, SOURCE)) {
+                    LOGGER.error("login_status needs a new layout but the previous migration hasn't finished. change the configuration back until it has");
+                    return;
+                }
+                swap(connection, legacy);
+            }
+            if (!tableExists(connection, SOURCE)) {
+                return;
+            }
+        } catch (Exception e) {
+            LOGGER.error("unable to migrate login_status", e);
+            return;
+        }
+        final Thread thread = new Thread(this::copy, "login-status-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void swap(Connection connection, boolean legacy) {
+        final Long oldest;
+        if (legacy) {
+            connection.createQuery("INSERT IGNORE INTO servers(name) SELECT DISTINCT server FROM login_status").executeUpdate();
+            oldest = connection.createQuery("SELECT unix_timestamp(min(timestamp)) FROM login_status").executeScalar(Long.class);
+        } else {
+            oldest = connection.createQuery("SELECT min(ts) FROM login_status").executeScalar(Long.class);
+        }
+        final YearMonth first = YearMonth.from(oldest == null ? Instant.now().atOffset(ZoneOffset.UTC) : Instant.ofEpochSecond(oldest).atOffset(ZoneOffset.UTC));
+        connection.createQuery("DROP TABLE IF EXISTS login_status_next").executeUpdate();
+        connection.createQuery(String.format(CREATE, "login_status_next") + partitionClause(first)).executeUpdate();
+        connection.createQuery("RENAME TABLE login_status TO " + SOURCE + ", login_status_next TO login_status").executeUpdate();
+        LOGGER.info("replaced login_status with a table in the new layout. copying existing rows in the background");
+    }
+
+    private void copy() {
+        try (Connection connection = database.open()) {
+            final boolean legacy = isLegacy(connection, SOURCE);
+            if (legacy) {
+                // the legacy table is only indexed by server, which would make every chunk a scan of all of its rows
+                connection.createQuery(INDEX_LEGACY).executeUpdate();
+            }
+            final long start = System.currentTimeMillis();
+            long copied = 0;
+            for (Row server : connection.createQuery("SELECT id, name FROM servers ORDER BY id").executeAndFetchTable().rows()) {
+                copied += copy(connection, legacy, server.getInteger("id"), server.getString("name"));
+            }
+            LOGGER.info("copied " + copied + " rows into login_status in " + (System.currentTimeMillis() - start) + "ms");
+            connection.createQuery("DROP TABLE IF EXISTS " + DONE).executeUpdate();
+            connection.createQuery("RENAME TABLE " + SOURCE + " TO " + DONE).executeUpdate();
+            LOGGER.info("migration of login_status finished. " + DONE + " can be dropped");
+        } catch (Exception e) {
+            LOGGER.error("unable to copy rows into login_status. will retry on next start", e);
+            return;
+        }
+        migrated.run();
+    }
+
+    private static long copy(Connection connection, boolean legacy, int id, String name) {
+        final Query range = legacy ?
+                connection.createQuery(RANGE_LEGACY).addParameter("name", name) :
+                connection.createQuery(RANGE).addParameter("id", id);
+        final Row row = range.executeAndFetchTable().rows().get(0);
+        final Long first = row.getLong("first");
+        final Long last = row.getLong("last");
+        long copied = 0;
+        if (first == null || last == null) {
+            return copied;
+        }
+        for (long from = first - Math.floorMod(first, CHUNK); from <= last; from += CHUNK) {
+            final Query query = connection.createQuery(legacy ? COPY_LEGACY : COPY).addParameter("id", id);
+            copied += (legacy ? query.addParameter("name", name) : query)
+                    .addParameter("from", from)
+                    .addParameter("to", from + CHUNK)
+                    .executeUpdate().getResult();
+        }
+        return copied;
+    }
+
+    /**
+     * @return true if login_status is not yet complete in the configured layout, either still in
+     * the legacy layout or with old rows left to copy
+     */
+    boolean isMigrating() {
+        try (Connection connection = database.open()) {
+            return isLegacy(connection, "login_status")
+                    || LoginStatusPartitions.isPartitioned(connection, "login_status") != (partitions != null)
+                    || tableExists(connection, SOURCE);
+        } catch (Exception e) {
+            LOGGER.warn("unable to check the layout of login_status", e);
+            return true;
+        }
+    }
+
+    private String partitionClause(YearMonth first) {
+        return partitions == null ? "" : partitions.clause(first);
+    }
+
+    private static boolean tableExists(Connection connection, String table) {
+        return connection.createQuery("SELECT exists(SELECT 1 FROM information_schema.tables WHERE table_schema=database() AND table_name=:table)")
+                .addParameter("table", table)
+                .executeScalar(Boolean.class);
+    }
+}
@@ -0,0 +1,187 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Credentials;
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import im.conversations.status.pojo.Incident;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Keeps everything on the heap. Nothing survives a restart, which makes it suitable for local
+ * benchmarks and for deployments that only care about the current status.
+ */
+public class MemoryStatusStore implements StatusStore {
+
+    private final Map<String, List<Sample>> history = new HashMap<>();
+    private final CredentialList credentials = new CredentialList(null);
+    private final OfflineSpans offline = new OfflineSpans(null);
+    private final DenseIds ids = new DenseIds(null);
+    private final List<PingLog.Row> pings = new ArrayList<>();
+
+    @Override
+    public boolean write(List<Sample> samples) {
+        synchronized (history) {
+            for (Sample sample : samples) {
+                history.computeIfAbsent(sample.getServer(), k -> new ArrayList<>()).add(sample);
+            }
+        }
+        synchronized (pings) {
+            for (Sample sample : samples) {
+                if (!sample.getPingResults().isEmpty()) {
+                    final BitSet[] encoded = PingMatrix.encode(sample.getPingResults(), ids::get);
+                    pings.add(new PingLog.Row(ids.get(sample.getServer()), sample.getTimestamp(), sample.getWeight(), encoded[0], encoded[1]));
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, HistoricalLoginStatus> getHistoricalLoginStatus(Instant now) {
+        final List<Integer> days = HistoricalLoginStatus.DURATIONS;
+        final Instant[] starts = new Instant[days.size()];
+        final long[] offlineSeconds = new long[days.size()];
+        for (int i = 0; i < days.size(); ++i) {
+            starts[i] = now.minus(Duration.of(days.get(i), HistoricalLoginStatus.UNIT));
+            offlineSeconds[i] = offline.secondsSince(starts[i]);
+        }
+        final Map<String, HistoricalLoginStatus> result = new HashMap<>();
+        synchronized (history) {
+            for (Map.Entry<String, List<Sample>> entry : history.entrySet()) {
+                final List<Sample> samples = entry.getValue();
+                final long[][] sums = new long[days.size()][3];
+                Instant first = null;
+                for (Sample sample : samples) {
+                    if (first == null || sample.getTimestamp().isBefore(first)) {
+                        first = sample.getTimestamp();
+                    }
+                    for (int i = 0; i < days.size(); ++i) {
+                        if (!sample.getTimestamp().isBefore(starts[i])) {
+                            sums[i][0]++;
+                            sums[i][1] += sample.getWeight();
+                            sums[i][2] += sample.getStatus() ? sample.getWeight() : 0;
+                        }
+                    }
+                }
+                final Map<Duration, Double> map = new HashMap<>();
+                for (int i = 0; i < days.size(); ++i) {
+                    if (first == null || !first.isBefore(starts[i])) {
+                        continue;
+                    }
+                    final Duration duration = Duration.of(days.get(i), HistoricalLoginStatus.UNIT);
+                    try {
+                        map.put(duration, new Availability(sums[i][0], sums[i][1], sums[i][2]).getPercentage(duration.minusSeconds(offlineSeconds[i])));
+                    } catch (HistoricalDataNotAvailableException e) {
+                        //ignore information not available
+                    }
+                }
+                result.put(entry.getKey(), new HistoricalLoginStatus(map));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Map<String, HistoricalLoginStatus>> getHistoricalPingStatus(Instant now) {
+        final PingMatrix matrix = new PingMatrix(now);
+        synchronized (pings) {
+            for (PingLog.Row row : pings) {
+                row.addTo(matrix);
+            }
+        }
+        return matrix.result(ids::getName, offline::secondsSince);
+    }
+
+    @Override
+    public List<Incident> getIncidents(String server, Instant from) {
+        final List<Sample> samples;
+        synchronized (history) {
+            samples = new ArrayList<>(history.getOrDefault(server, Collections.emptyList()));
+        }
+        samples.sort(Comparator.comparing(Sample::getTimestamp));
+        final List<Incident> incidents = new ArrayList<>();
+        Instant start = null;
+        for (Sample sample : samples) {
+            if (!sample.getStatus() && start == null) {
+                start = sample.getTimestamp();
+            } else if (sample.getStatus() && start != null) {
+                if (sample.getTimestamp().isAfter(from)) {
+                    incidents.add(new Incident(server, start, sample.getTimestamp()));
+                }
+                start = null;
+            }
+        }
+        if (start != null) {
+            incidents.add(new Incident(server, start, null));
+        }
+        Collections.reverse(incidents);
+        return incidents;
+    }
+
+    @Override
+    public Instant getCleanSince(String server) {
+        synchronized (history) {
+            final List<Sample> samples = history.get(server);
+            if (samples == null || samples.isEmpty()) {
+                return null;
+            }
+            for (int i = samples.size() - 1; i >= 0; --i) {
+                if (!samples.get(i).getStatus()) {
+                    return samples.get(i).getTimestamp();
+                }
+            }
+            return samples.get(0).getTimestamp();
+        }
+    }
+
+    @Override
+    public void putMonitorOffline(Instant start, Instant end) {
+        offline.add(start, end);
+    }
+
+    /**
+     * Samples are the only tier, so they are kept as long as hourly rollups would be.
+     */
+    @Override
+    public void compact(Retention retention) {
+        final Instant now = Instant.now();
+        final Instant expiry = retention.getHourlyExpiry(now);
+        synchronized (history) {
+            for (List<Sample> samples : history.values()) {
+                samples.removeIf(sample -> sample.getTimestamp().isBefore(expiry));
+            }
+            history.values().removeIf(List::isEmpty);
+        }
+        synchronized (pings) {
+            pings.removeIf(row -> row.getTimestamp().isBefore(retention.getRawExpiry(now)));
+        }
+        offline.discardBefore(expiry);
+    }
+
+    @Override
+    public List<Credentials> getCredentials() {
+        return credentials.get();
+    }
+
+    @Override
+    public List<String> getDomains() {
+        return credentials.getDomains();
+    }
+
+    @Override
+    public boolean exists(String domain) {
+        return credentials.exists(domain);
+    }
+
+    @Override
+    public boolean put(Credentials credentials) {
+        return this.credentials.add(credentials);
+    }
+
+    @Override
+    public boolean delete(Credentials credentials) {
+        return this.credentials.remove(credentials);
+    }
+}
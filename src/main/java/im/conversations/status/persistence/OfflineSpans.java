@@ -0,0 +1,88 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spans of time in which the monitor was offline, for the stores that don't keep them in a
+ * database. If a file is given every span is appended to it as a line of two epoch seconds.
+ */
+class OfflineSpans {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OfflineSpans.class);
+
+    private final Path file;
+    private final List<Instant[]> spans = new ArrayList<>();
+
+    OfflineSpans(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    final String[] parts = line.trim().split(" ");
+                    if (parts.length == 2) {
+                        spans.add(new Instant[]{Instant.ofEpochSecond(Long.parseLong(parts[0])), Instant.ofEpochSecond(Long.parseLong(parts[1]))});
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.warn("unable to read monitor offline time from " + file, e);
+            }
+        }
+    }
+
+    synchronized void add(Instant start, Instant end) {
+        spans.add(new Instant[]{start, end});
+        if (file != null) {
+            try {
+                Files.write(file, (line(start, end) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOGGER.warn("unable to record monitor offline time", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of seconds the monitor was offline after the given instant
+     */
+    synchronized long secondsSince(Instant start) {
+        long seconds = 0;
+        for (Instant[] span : spans) {
+            if (span[1].isAfter(start)) {
+                seconds += Duration.between(span[0].isAfter(start) ? span[0] : start, span[1]).getSeconds();
+            }
+        }
+        return seconds;
+    }
+
+    synchronized void discardBefore(Instant expiry) {
+        if (!spans.removeIf(span -> span[1].isBefore(expiry)) || file == null) {
+            return;
+        }
+        final StringBuilder content = new StringBuilder();
+        for (Instant[] span : spans) {
+            content.append(line(span[0], span[1])).append('\n');
+        }
+        try {
+            final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("unable to discard expired monitor offline time", e);
+        }
+    }
+
+    private static String line(Instant start, Instant end) {
+        return start.getEpochSecond() + " " + end.getEpochSecond();
+    }
+}
@@ -0,0 +1,190 @@
+package im.conversations.status.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append-only log of ping rows with one file per day, so that calculating a window only reads the
+ * days in it and expiry deletes whole files. A record is the source id, the epoch second, the
+ * weight and the attempted and reached bitsets, each prefixed by its length.
+ * <p>
+ * Before a file is first appended to, a record left incomplete by a crash or a failed write is
+ * cut off, so that it can't misalign the records after it.
+ */
+class PingLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PingLog.class);
+
+    private static final String SUFFIX = ".pings";
+
+    private final Path directory;
+    private final Set<LocalDate> verified = new HashSet<>();
+
+    PingLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return false if the rows could not be written
+     */
+    synchronized boolean append(List<Row> rows) {
+        LocalDate day = null;
+        DataOutputStream out = null;
+        try {
+            for (Row row : rows) {
+                final LocalDate rowDay = dayOf(row.timestamp);
+                if (!rowDay.equals(day)) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    day = rowDay;
+                    if (verified.add(day)) {
+                        truncateTornTail(fileOf(day));
+                    }
+                    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(fileOf(day), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+                }
+                final byte[] attempted = row.attempted.toByteArray();
+                final byte[] reached = row.reached.toByteArray();
+                out.writeInt(row.source);
+                out.writeLong(row.timestamp.getEpochSecond());
+                out.writeInt((int) row.weight);
+                out.writeShort(attempted.length);
+                out.write(attempted);
+                out.writeShort(reached.length);
+                out.write(reached);
+            }
+            if (out != null) {
+                out.close();
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("unable to write " + rows.size() + " ping rows", e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // already failed
+                }
+            }
+            // the record being written may be incomplete
+            if (day != null) {
+                verified.remove(day);
+            }
+            return false;
+        }
+    }
+
+    private static void truncateTornTail(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        final long size = Files.size(file);
+        long complete = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (complete < size) {
+                final long header = 4 + 8 + 4;
+                in.readFully(new byte[(int) header]);
+                final int attempted = in.readUnsignedShort();
+                in.readFully(new byte[attempted]);
+                final int reached = in.readUnsignedShort();
+                in.readFully(new byte[reached]);
+                complete += header + 2 + attempted + 2 + reached;
+            }
+        } catch (EOFException e) {
+            LOGGER.warn("discarding incomplete ping row at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+    }
+
+    synchronized void read(Instant from, PingMatrix matrix) {
+        final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (LocalDate day = dayOf(from); !day.isAfter(today); day = day.plusDays(1)) {
+            final Path file = fileOf(day);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    final int source;
+                    try {
+                        source = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final Instant timestamp = Instant.ofEpochSecond(in.readLong());
+                    final long weight = in.readInt();
+                    final byte[] attempted = new byte[in.readUnsignedShort()];
+                    in.readFully(attempted);
+                    final byte[] reached = new byte[in.readUnsignedShort()];
+                    in.readFully(reached);
+                    matrix.add(source, timestamp, weight, BitSet.valueOf(attempted), BitSet.valueOf(reached));
+                }
+            } catch (IOException e) {
+                LOGGER.warn("unable to read ping rows from " + file, e);
+            }
+        }
+    }
+
+    synchronized void discardBefore(Instant expiry) {
+        final LocalDate expired = dayOf(expiry);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                if (LocalDate.parse(name.substring(0, name.length() - SUFFIX.length())).isBefore(expired)) {
+                    Files.delete(path);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("unable to discard expired ping rows", e);
+        }
+    }
+
+    private Path fileOf(LocalDate day) {
+        return directory.resolve(day + SUFFIX);
+    }
+
+    private static LocalDate dayOf(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC).toLocalDate();
+    }
+
+    static class Row {
+        private final int source;
+        private final Instant timestamp;
+        private final long weight;
+        private final BitSet attempted;
+        private final BitSet reached;
+
+        Row(int source, Instant timestamp, long weight, BitSet attempted, BitSet reached) {
+            this.source = source;
+            this.timestamp = timestamp;
+            this.weight = weight;
+            this.attempted = attempted;
+            this.reached = reached;
+        }
+
+        void addTo(PingMatrix matrix) {
+            matrix.add(source, timestamp, weight, attempted, reached);
+        }
+
+        Instant getTimestamp() {
+            return timestamp;
+        }
+    }
+}
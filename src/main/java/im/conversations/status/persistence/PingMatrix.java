@@ -0,0 +1,103 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import im.conversations.status.pojo.PingResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Adds up ping outcomes per (source, target) pair for every duration in
+ * {@link HistoricalLoginStatus#PING_DURATIONS}. Each row is the set of targets a source pinged in
+ * one check and the subset that answered, as bitsets over dense target ids. Like login samples
+ * the outcomes are weighted by the time since the previous check of the source.
+ */
+class PingMatrix {
+
+    private final List<Duration> durations = new ArrayList<>();
+    private final Instant[] starts;
+    private final Map<Long, long[]> sums = new HashMap<>();
+
+    PingMatrix(Instant now) {
+        final List<Integer> days = new ArrayList<>(HistoricalLoginStatus.PING_DURATIONS);
+        Collections.sort(days);
+        this.starts = new Instant[days.size()];
+        for (int i = 0; i < days.size(); ++i) {
+            durations.add(Duration.of(days.get(i), HistoricalLoginStatus.UNIT));
+            starts[i] = now.minus(durations.get(i));
+        }
+    }
+
+    /**
+     * @return the start of the longest window; older rows don't need to be read
+     */
+    Instant getFrom() {
+        return starts[starts.length - 1];
+    }
+
+    void add(int source, Instant timestamp, long weight, BitSet attempted, BitSet reached) {
+        int first = 0;
+        while (first < starts.length && timestamp.isBefore(starts[first])) {
+            ++first;
+        }
+        if (first == starts.length) {
+            return;
+        }
+        for (int target = attempted.nextSetBit(0); target >= 0; target = attempted.nextSetBit(target + 1)) {
+            final long[] sum = sums.computeIfAbsent(((long) source << 32) | target, k -> new long[3 * starts.length]);
+            final boolean up = reached.get(target);
+            for (int i = first; i < starts.length; ++i) {
+                sum[3 * i]++;
+                sum[3 * i + 1] += weight;
+                sum[3 * i + 2] += up ? weight : 0;
+            }
+        }
+    }
+
+    /**
+     * @return the availability by target and then by source
+     */
+    Map<String, Map<String, HistoricalLoginStatus>> result(IntFunction<String> names, ToLongFunction<Instant> offlineSecondsSince) {
+        final long[] offline = new long[starts.length];
+        for (int i = 0; i < starts.length; ++i) {
+            offline[i] = offlineSecondsSince.applyAsLong(starts[i]);
+        }
+        final Map<String, Map<String, HistoricalLoginStatus>> result = new HashMap<>();
+        for (Map.Entry<Long, long[]> entry : sums.entrySet()) {
+            final String source = names.apply((int) (entry.getKey() >>> 32));
+            final String target = names.apply((int) (long) entry.getKey());
+            if (source == null || target == null) {
+                continue;
+            }
+            final long[] sum = entry.getValue();
+            final Map<Duration, Double> map = new HashMap<>();
+            for (int i = 0; i < starts.length; ++i) {
+                try {
+                    map.put(durations.get(i), new Availability(sum[3 * i], sum[3 * i + 1], sum[3 * i + 2]).getPercentage(durations.get(i).minusSeconds(offline[i])));
+                } catch (HistoricalDataNotAvailableException e) {
+                    //ignore information not available
+                }
+            }
+            result.computeIfAbsent(target, k -> new HashMap<>()).put(source, new HistoricalLoginStatus(map));
+        }
+        return result;
+    }
+
+    /**
+     * @return the pinged and the reached targets as bitsets over their ids
+     */
+    static BitSet[] encode(List<PingResult> pingResults, ToIntFunction<String> ids) {
+        final BitSet attempted = new BitSet();
+        final BitSet reached = new BitSet();
+        for (PingResult pingResult : pingResults) {
+            final int id = ids.applyAsInt(pingResult.getServer().getDomain());
+            attempted.set(id);
+            reached.set(id, pingResult.isSuccessful());
+        }
+        return new BitSet[]{attempted, reached};
+    }
+}
@@ -0,0 +1,44 @@
+package im.conversations.status.persistence;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import im.conversations.status.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports the state of every connection pool and how long callers waited to get a connection
+ * from it, as db.&lt;pool&gt;.*.
+ */
+class PoolMetrics implements MetricsTrackerFactory {
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        final String prefix = "db." + poolName + ".";
+        Metrics.gauge(prefix + "active", poolStats::getActiveConnections);
+        Metrics.gauge(prefix + "idle", poolStats::getIdleConnections);
+        Metrics.gauge(prefix + "pending", poolStats::getPendingThreads);
+        Metrics.gauge(prefix + "max", poolStats::getMaxConnections);
+        final AtomicLong acquired = Metrics.counter(prefix + "acquired");
+        final AtomicLong timeouts = Metrics.counter(prefix + "timeouts");
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        Metrics.gauge(prefix + "wait_ms", () -> TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+        Metrics.gauge(prefix + "max_wait_ms", () -> TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquired.incrementAndGet();
+                waitNanos.addAndGet(elapsedAcquiredNanos);
+                maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.incrementAndGet();
+            }
+        };
+    }
+}
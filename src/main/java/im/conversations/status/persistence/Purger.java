@@ -0,0 +1,106 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.data.Row;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes rows in chunks ordered by primary key, so each statement locks a short contiguous key
+ * range, and pauses between chunks so inserts get their turn. A chunk that took longer than the
+ * pause is followed by a pause as long as the chunk, which keeps the purger below half of the
+ * database's time when it is under load.
+ * <p>
+ * Lock wait is the growth of InnoDB's global row lock time while a purge runs; it includes
+ * inserts that had to wait for the purger.
+ */
+class Purger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Purger.class);
+
+    private final int chunkSize;
+    private final Duration pause;
+    private final AtomicLong deleted = Metrics.counter("purge.deleted");
+    private final AtomicLong chunks = Metrics.counter("purge.chunks");
+    private final AtomicLong lockWaitMillis = Metrics.counter("purge.lock_wait_ms");
+    private final AtomicLong lockWaits = Metrics.counter("purge.lock_waits");
+    private volatile long rowsPerSecond = 0;
+    private volatile long lastChunkMillis = 0;
+    private volatile String running = null;
+
+    Purger(int chunkSize, Duration pause) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pause = pause;
+        Metrics.gauge("purge.rows_per_sec", () -> rowsPerSecond);
+        Metrics.gauge("purge.last_chunk_ms", () -> lastChunkMillis);
+        Metrics.gauge("purge.running", () -> running == null ? 0 : 1);
+    }
+
+    /**
+     * @return the number of rows deleted
+     */
+    long purge(Connection connection, String table, String condition, String orderBy, Map<String, Object> parameters) throws InterruptedException {
+        final Query query = connection.createQuery("DELETE FROM " + table + " WHERE " + condition + " ORDER BY " + orderBy + " LIMIT " + chunkSize);
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            query.addParameter(parameter.getKey(), parameter.getValue());
+        }
+        running = table;
+        final long[] lockStart = getRowLockStatus(connection);
+        final long start = System.nanoTime();
+        long total = 0;
+        try {
+            int result;
+            do {
+                final long chunkStart = System.nanoTime();
+                result = query.executeUpdate().getResult();
+                lastChunkMillis = (System.nanoTime() - chunkStart) / 1_000_000;
+                total += result;
+                deleted.addAndGet(result);
+                chunks.incrementAndGet();
+                if (result == chunkSize) {
+                    Thread.sleep(Math.max(pause.toMillis(), lastChunkMillis));
+                }
+            } while (result == chunkSize);
+        } finally {
+            running = null;
+            final long[] lockEnd = getRowLockStatus(connection);
+            lockWaitMillis.addAndGet(Math.max(0, lockEnd[0] - lockStart[0]));
+            lockWaits.addAndGet(Math.max(0, lockEnd[1] - lockStart[1]));
+        }
+        if (total > 0) {
+            final long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            rowsPerSecond = total * 1000 / millis;
+            LOGGER.debug("purged " + total + " rows from " + table + " in " + millis + "ms (" + rowsPerSecond + " rows/s)");
+        }
+        return total;
+    }
+
+    /**
+     * @return the row lock time in milliseconds and the number of row lock waits
+     */
+    private static long[] getRowLockStatus(Connection connection) {
+        final long[] status = new long[2];
+        try {
+            final List<Row> rows = connection.createQuery("SHOW GLOBAL STATUS WHERE Variable_name IN ('Innodb_row_lock_time', 'Innodb_row_lock_waits')")
+                    .executeAndFetchTable().rows();
+            for (Row row : rows) {
+                final long value = Long.parseLong(row.getString(1));
+                if ("Innodb_row_lock_time".equalsIgnoreCase(row.getString(0))) {
+                    status[0] = value;
+                } else {
+                    status[1] = value;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.debug("unable to read row lock status", e);
+        }
+        return status;
+    }
+}
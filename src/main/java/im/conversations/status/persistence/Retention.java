@@ -0,0 +1,43 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Configuration;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+/**
+ * How long each tier of history is kept: raw samples for some days, hourly rollups for some
+ * months and daily rollups for some months or, by default, forever.
+ */
+public class Retention {
+
+    private final Duration raw;
+    private final int hourlyMonths;
+    private final int dailyMonths;
+
+    public Retention(Duration raw, int hourlyMonths, int dailyMonths) {
+        this.raw = raw;
+        this.hourlyMonths = hourlyMonths;
+        this.dailyMonths = dailyMonths;
+    }
+
+    public static Retention of(Configuration configuration) {
+        return new Retention(configuration.getRawRetention(), configuration.getHourlyRetention(), configuration.getDailyRetention());
+    }
+
+    public Instant getRawExpiry(Instant now) {
+        return now.minus(raw);
+    }
+
+    public Instant getHourlyExpiry(Instant now) {
+        return now.atOffset(ZoneOffset.UTC).minusMonths(hourlyMonths).toInstant();
+    }
+
+    /**
+     * @return the expiry of daily rollups or null if they are kept forever
+     */
+    public Instant getDailyExpiry(Instant now) {
+        return dailyMonths <= 0 ? null : now.atOffset(ZoneOffset.UTC).minusMonths(dailyMonths).toInstant();
+    }
+}
@@ -0,0 +1,108 @@
+package im.conversations.status.persistence;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Aggregate of all samples of one server within one hour or day (UTC).
+ */
+class Rollup {
+
+    private final String server;
+    private final Instant period;
+    private int samples = 0;
+    private int successes = 0;
+    private long total = 0;
+    private long up = 0;
+    private Instant first;
+    private Instant last;
+
+    private Rollup(String server, Instant period) {
+        this.server = server;
+        this.period = period;
+    }
+
+    static List<Rollup> of(List<Sample> samples, ChronoUnit unit) {
+        final Map<Key, Rollup> rollups = new LinkedHashMap<>();
+        for (Sample sample : samples) {
+            final Instant period = sample.getTimestamp().truncatedTo(unit);
+            rollups.computeIfAbsent(new Key(sample.getServer(), period), k -> new Rollup(k.server, k.period)).add(sample);
+        }
+        return new ArrayList<>(rollups.values());
+    }
+
+    private void add(Sample sample) {
+        samples++;
+        total += sample.getWeight();
+        if (sample.getStatus()) {
+            successes++;
+            up += sample.getWeight();
+        }
+        if (first == null || sample.getTimestamp().isBefore(first)) {
+            first = sample.getTimestamp();
+        }
+        if (last == null || sample.getTimestamp().isAfter(last)) {
+            last = sample.getTimestamp();
+        }
+    }
+
+    String getServer() {
+        return server;
+    }
+
+    Instant getPeriod() {
+        return period;
+    }
+
+    int getSamples() {
+        return samples;
+    }
+
+    int getSuccesses() {
+        return successes;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    long getUp() {
+        return up;
+    }
+
+    Instant getFirst() {
+        return first;
+    }
+
+    Instant getLast() {
+        return last;
+    }
+
+    private static class Key {
+        private final String server;
+        private final Instant period;
+
+        private Key(String server, Instant period) {
+            this.server = server;
+            this.period = period;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return server.equals(key.server) && period.equals(key.period);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(server, period);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.PingResult;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The result of one check waiting to be written: the login status and the outcome of the pings
+ * sent from the server.
+ */
+public class Sample {
+
+    private final String server;
+    private final Instant timestamp;
+    private final boolean status;
+    private final long weight;
+    private final List<PingResult> pingResults;
+
+    public Sample(String server, Instant timestamp, boolean status, long weight, List<PingResult> pingResults) {
+        this.server = server;
+        this.timestamp = timestamp;
+        this.status = status;
+        this.weight = weight;
+        this.pingResults = pingResults;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean getStatus() {
+        return status;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public List<PingResult> getPingResults() {
+        return pingResults;
+    }
+}
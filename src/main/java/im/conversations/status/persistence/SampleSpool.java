@@ -0,0 +1,322 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.metrics.Metrics;
+import im.conversations.status.pojo.PingResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Append-only spool for samples the store could not take. Every batch is appended and forced to
+ * disk with a single fsync, and a replayer thread hands them back to the store in order once it
+ * accepts writes again. While anything is spooled new batches are spooled as well, so the store
+ * always receives samples in the order they were taken.
+ * <p>
+ * A record is the server, the epoch second, the login status, the weight and the ping results.
+ * The replay position is kept in a second file; once everything has been replayed both files are
+ * truncated. A batch the store keeps refusing while it is reachable is replayed sample by sample
+ * and the samples it still refuses are moved to a third file, so they can't hold up the rest.
+ */
+class SampleSpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SampleSpool.class);
+
+    private static final int ATTEMPTS_BEFORE_QUARANTINE = 5;
+
+    private final Path file;
+    private final Path offsetFile;
+    private final Path rejectedFile;
+    private final int batchSize;
+    private final Duration retryInterval;
+    private final Predicate<List<Sample>> writer;
+    private final BooleanSupplier available;
+    // held across every call to the writer, so direct writes and replays can't overtake each other
+    private final Object writeLock = new Object();
+    private final AtomicLong spooled = Metrics.counter("spool.spooled");
+    private final AtomicLong replayed = Metrics.counter("spool.replayed");
+    private final AtomicLong rejected = Metrics.counter("spool.rejected");
+    private FileChannel channel;
+    private long offset = 0;
+    private long pending = 0;
+    private int attempts = 0;
+
+    SampleSpool(Path file, int batchSize, Duration retryInterval, Predicate<List<Sample>> writer, BooleanSupplier available) {
+        this.file = file;
+        this.offsetFile = file.resolveSibling(file.getFileName() + ".offset");
+        this.rejectedFile = file.resolveSibling(file.getFileName() + ".rejected");
+        this.batchSize = Math.max(1, batchSize);
+        this.retryInterval = retryInterval;
+        this.writer = writer;
+        this.available = available;
+        recover();
+        Metrics.gauge("spool.pending", this::getPending);
+        final Thread thread = new Thread(this::replayLoop, "spool-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes the samples to the store, or to the spool if the store fails or older samples are
+     * still waiting to be replayed.
+     */
+    void write(List<Sample> samples) {
+        synchronized (writeLock) {
+            if (getPending() == 0 && writer.test(samples)) {
+                return;
+            }
+            append(samples);
+        }
+    }
+
+    synchronized long getPending() {
+        return pending;
+    }
+
+    private synchronized void append(List<Sample> samples) {
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            }
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(buffer);
+            for (Sample sample : samples) {
+                write(out, sample);
+            }
+            out.flush();
+            final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            long position = channel.size();
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            channel.force(false);
+            pending += samples.size();
+            spooled.addAndGet(samples.size());
+            notifyAll();
+        } catch (IOException e) {
+            LOGGER.error("unable to spool " + samples.size() + " samples. they are lost", e);
+        }
+    }
+
+    private void replayLoop() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (pending == 0) {
+                        wait();
+                    }
+                }
+                if (!replayBatch()) {
+                    Thread.sleep(retryInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to replay spooled samples", e);
+            }
+        }
+    }
+
+    /**
+     * @return false if the store didn't take the next batch
+     */
+    private boolean replayBatch() {
+        synchronized (writeLock) {
+            return replayBatchLocked();
+        }
+    }
+
+    private boolean replayBatchLocked() {
+        final List<Sample> batch = new ArrayList<>(batchSize);
+        final long end;
+        synchronized (this) {
+            try {
+                end = read(offset, batch);
+            } catch (IOException e) {
+                LOGGER.warn("unable to read spooled samples", e);
+                return false;
+            }
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        if (writer.test(batch)) {
+            replayed.addAndGet(batch.size());
+        } else if (++attempts < ATTEMPTS_BEFORE_QUARANTINE || !available.getAsBoolean() || !quarantine(batch)) {
+            return false;
+        }
+        attempts = 0;
+        synchronized (this) {
+            offset = end;
+            pending -= batch.size();
+            try {
+                if (pending == 0) {
+                    channel.truncate(0);
+                    channel.force(false);
+                    offset = 0;
+                    LOGGER.info("replayed all spooled samples");
+                }
+                Files.write(offsetFile, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                LOGGER.warn("unable to record replay position", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the batch one sample at a time and appends those the store refuses to the rejected
+     * file.
+     *
+     * @return false if the refused samples could not be set aside
+     */
+    private boolean quarantine(List<Sample> batch) {
+        final List<Sample> refused = new ArrayList<>();
+        for (Sample sample : batch) {
+            if (writer.test(Collections.singletonList(sample))) {
+                replayed.incrementAndGet();
+            } else {
+                refused.add(sample);
+            }
+        }
+        if (refused.isEmpty()) {
+            return true;
+        }
+        try (FileChannel rejectedChannel = FileChannel.open(rejectedFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(buffer);
+            for (Sample sample : refused) {
+                write(out, sample);
+            }
+            out.flush();
+            final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                rejectedChannel.write(bytes);
+            }
+            rejectedChannel.force(false);
+        } catch (IOException e) {
+            LOGGER.error("unable to set aside " + refused.size() + " rejected samples", e);
+            return false;
+        }
+        rejected.addAndGet(refused.size());
+        LOGGER.warn("moved " + refused.size() + " samples the store keeps rejecting to " + rejectedFile);
+        return true;
+    }
+
+    /**
+     * Reads up to one batch of samples starting at the given position.
+     *
+     * @return the position after the last sample read
+     */
+    private long read(long position, List<Sample> samples) throws IOException {
+        final long size = channel.size();
+        final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+        final DataInputStream in = new DataInputStream(counter);
+        while (samples.size() < batchSize && position + counter.count < size) {
+            samples.add(read(in));
+        }
+        return position + counter.count;
+    }
+
+    /**
+     * Finds the replay position and the number of pending samples, and cuts off a record that
+     * was only partially written before a crash.
+     */
+    private synchronized void recover() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            if (Files.exists(offsetFile)) {
+                offset = Long.parseLong(new String(Files.readAllBytes(offsetFile), StandardCharsets.UTF_8).trim());
+            }
+            final long size = channel.size();
+            final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(offset))));
+            final DataInputStream in = new DataInputStream(counter);
+            long complete = 0;
+            try {
+                while (offset + counter.count < size) {
+                    read(in);
+                    complete = counter.count;
+                    ++pending;
+                }
+            } catch (EOFException e) {
+                LOGGER.warn("discarding partially spooled sample at the end of " + file);
+                channel.truncate(offset + complete);
+            }
+            if (pending > 0) {
+                LOGGER.info("found " + pending + " spooled samples to replay");
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.error("unable to recover spooled samples from " + file, e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Sample sample) throws IOException {
+        out.writeUTF(sample.getServer());
+        out.writeLong(sample.getTimestamp().getEpochSecond());
+        out.writeBoolean(sample.getStatus());
+        out.writeInt((int) sample.getWeight());
+        out.writeShort(sample.getPingResults().size());
+        for (PingResult pingResult : sample.getPingResults()) {
+            out.writeUTF(pingResult.getServer().getDomain());
+            out.writeBoolean(pingResult.isSuccessful());
+        }
+    }
+
+    private static Sample read(DataInputStream in) throws IOException {
+        final String server = in.readUTF();
+        final Instant timestamp = Instant.ofEpochSecond(in.readLong());
+        final boolean status = in.readBoolean();
+        final long weight = in.readInt();
+        final int count = in.readUnsignedShort();
+        final List<PingResult> pingResults = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            pingResults.add(new PingResult(in.readUTF(), in.readBoolean()));
+        }
+        return new Sample(server, timestamp, status, weight, pingResults);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package im.conversations.status.persistence;
+
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the dense integer IDs in the servers table that login_status refers to.
+ */
+class ServerIds {
+
+    static final String CREATE_SERVERS = "CREATE TABLE IF NOT EXISTS servers (id INT UNSIGNED NOT NULL AUTO_INCREMENT, name VARCHAR(255) NOT NULL, PRIMARY KEY(id), UNIQUE KEY name_index(name))";
+
+    private final Sql2o database;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    ServerIds(Sql2o database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the id of the server or null if it has none yet
+     */
+    Integer get(Connection connection, String server) {
+        final Integer cached = ids.get(server);
+        if (cached != null) {
+            return cached;
+        }
+        final Integer id = connection.createQuery("SELECT id FROM servers WHERE name=:name")
+                .addParameter("name", server)
+                .executeScalar(Integer.class);
+        if (id != null) {
+            ids.put(server, id);
+        }
+        return id;
+    }
+
+    /**
+     * New ids are created on a connection of their own so that they are never rolled back along
+     * with the transaction that needed them while staying in the cache.
+     */
+    int getOrCreate(String server) {
+        final Integer cached = ids.get(server);
+        if (cached != null) {
+            return cached;
+        }
+        try (Connection connection = database.open()) {
+            connection.createQuery("INSERT IGNORE INTO servers(name) VALUES(:name)")
+                    .addParameter("name", server)
+                    .executeUpdate();
+            return get(connection, server);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.CheckPhase;
+import im.conversations.status.pojo.PingResult;
+import im.conversations.status.pojo.ServerStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * The latest status of every server, kept in an append-only file so that a restarted monitor can
+ * show results right away instead of waiting for the first round of checks. Updates are collected
+ * and appended by the write-behind thread; the file is rewritten with only the latest record per
+ * server on load and whenever it holds more than a few records per server.
+ * <p>
+ * A record is the server, the epoch millisecond of the check, the login status, the timeout
+ * phase (or -1) and the ping results.
+ */
+class StatusSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatusSnapshot.class);
+
+    private static final int RECORDS_PER_SERVER = 8;
+
+    private final Path file;
+    private final Map<String, ServerStatus> latest = new HashMap<>();
+    private final Map<String, ServerStatus> pending = new LinkedHashMap<>();
+    private int records = 0;
+
+    StatusSnapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the latest status of every server found in the file, marked as restored
+     */
+    synchronized Map<String, ServerStatus> load() {
+        if (!Files.exists(file)) {
+            return Collections.emptyMap();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                final String server;
+                try {
+                    server = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                final Instant timestamp = Instant.ofEpochMilli(in.readLong());
+                final boolean loggedIn = in.readBoolean();
+                final int phase = in.readByte();
+                final int count = in.readUnsignedShort();
+                final List<PingResult> pingResults = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    pingResults.add(new PingResult(in.readUTF(), in.readBoolean()));
+                }
+                latest.put(server, ServerStatus.restore(timestamp, loggedIn, pingResults, phase < 0 ? null : CheckPhase.values()[phase]));
+            }
+        } catch (IOException | RuntimeException e) {
+            // a record cut short by a crash only loses that record
+            LOGGER.warn("unable to read all of " + file + ". restored " + latest.size() + " servers", e);
+        }
+        rewrite();
+        return new HashMap<>(latest);
+    }
+
+    synchronized void put(String server, ServerStatus serverStatus) {
+        pending.put(server, serverStatus);
+    }
+
+    synchronized void remove(String server) {
+        pending.remove(server);
+        if (latest.remove(server) != null) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Appends the updates collected since the last call.
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        latest.putAll(pending);
+        if (records + pending.size() > Math.max(latest.size(), 1) * RECORDS_PER_SERVER) {
+            pending.clear();
+            rewrite();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            write(out, pending);
+            records += pending.size();
+        } catch (IOException e) {
+            LOGGER.warn("unable to append " + pending.size() + " server status to " + file, e);
+        }
+        pending.clear();
+    }
+
+    private void rewrite() {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            write(out, latest);
+        } catch (IOException e) {
+            LOGGER.warn("unable to write " + temporary, e);
+            return;
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = latest.size();
+        } catch (IOException e) {
+            LOGGER.warn("unable to replace " + file, e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Map<String, ServerStatus> statuses) throws IOException {
+        for (Map.Entry<String, ServerStatus> entry : statuses.entrySet()) {
+            final ServerStatus serverStatus = entry.getValue();
+            final List<PingResult> pingResults = serverStatus.getPingResults();
+            out.writeUTF(entry.getKey());
+            out.writeLong(serverStatus.getLoginStatus().getTimestamp().toEpochMilli());
+            out.writeBoolean(serverStatus.isLoggedIn());
+            out.writeByte(serverStatus.getTimeoutPhase() == null ? -1 : serverStatus.getTimeoutPhase().ordinal());
+            out.writeShort(pingResults.size());
+            for (PingResult pingResult : pingResults) {
+                out.writeUTF(pingResult.getServer().getDomain());
+                out.writeBoolean(pingResult.isSuccessful());
+            }
+        }
+    }
+}
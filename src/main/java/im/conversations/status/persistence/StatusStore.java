@@ -0,0 +1,83 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Credentials;
+import im.conversations.status.pojo.HistoricalLoginStatus;
+import im.conversations.status.pojo.Incident;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage backend behind {@link Database}. Implementations keep the login and ping history, the
+ * credentials and the spans in which the monitor itself was offline, and calculate the
+ * historical uptime from them. The current status of every server is held by {@link Database}
+ * regardless of the backend.
+ */
+public interface StatusStore {
+
+    /**
+     * @return false if the samples could not be written and should be retried later
+     */
+    boolean write(List<Sample> samples);
+
+    /**
+     * Tells a failed write caused by an unreachable backend apart from samples the backend
+     * refuses, so that the latter can be set aside instead of being retried forever.
+     *
+     * @return false if the backend can't be reached at the moment
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * @return the uptime of every server for every duration in {@link HistoricalLoginStatus#DURATIONS}
+     */
+    Map<String, HistoricalLoginStatus> getHistoricalLoginStatus(Instant now);
+
+    /**
+     * @return the availability of every target from every server that pinged it, by target and
+     * then by source, for every duration in {@link HistoricalLoginStatus#PING_DURATIONS}
+     */
+    Map<String, Map<String, HistoricalLoginStatus>> getHistoricalPingStatus(Instant now);
+
+    /**
+     * @return the incidents of the server that were still going on at the given instant or
+     * started after it, latest first
+     */
+    List<Incident> getIncidents(String server, Instant from);
+
+    /**
+     * @return the time of the last failed login or, if there never was one, of the first sample
+     */
+    Instant getCleanSince(String server);
+
+    void putMonitorOffline(Instant start, Instant end);
+
+    /**
+     * Downsamples or deletes history according to the retention. Called periodically from a
+     * background thread.
+     */
+    void compact(Retention retention);
+
+    /**
+     * @return the stored credentials or null if they could not be read
+     */
+    List<Credentials> getCredentials();
+
+    List<String> getDomains();
+
+    boolean exists(String domain);
+
+    boolean put(Credentials credentials);
+
+    boolean delete(Credentials credentials);
+
+    /**
+     * Called once on shutdown after the last write.
+     */
+    default void close() {
+
+    }
+}
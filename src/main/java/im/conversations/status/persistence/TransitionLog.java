@@ -0,0 +1,283 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.pojo.Incident;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.data.Row;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Run-length form of login_status: login_transitions has one row per run of unchanged status
+ * with the time the run started and the time it was last confirmed. A new row is only written
+ * when the status of a server flips or when it wasn't checked for longer than {@code gap}; in
+ * between, the end of the current run is moved forward at most once per {@code heartbeat}. A run
+ * that ends with a flip reaches up to the start of the next one, so uptime over any window is the
+ * overlap of a handful of runs with it. Incidents are opened and closed along with the runs.
+ */
+class TransitionLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransitionLog.class);
+
+    static final String CREATE_TRANSITIONS = "CREATE TABLE IF NOT EXISTS login_transitions (server_id INT UNSIGNED NOT NULL, ts INT UNSIGNED NOT NULL, status TINYINT NOT NULL, last INT UNSIGNED NOT NULL, PRIMARY KEY(server_id, ts))";
+    static final String CREATE_INCIDENTS = "CREATE TABLE IF NOT EXISTS incidents (server_id INT UNSIGNED NOT NULL, start INT UNSIGNED NOT NULL, end INT UNSIGNED NULL, duration INT UNSIGNED NULL, PRIMARY KEY(server_id, start), index end_index(end))";
+    private static final String CREATE_BACKFILLED = "CREATE TABLE IF NOT EXISTS login_transitions_backfilled (server_id INT UNSIGNED NOT NULL PRIMARY KEY)";
+    // runs start where the status changes or the gap to the previous sample is too long; a run reaches up to the next sample unless that one is too far off
+    private static final String BACKFILL_TRANSITIONS = "INSERT IGNORE INTO login_transitions(server_id,ts,status,last) SELECT server_id, min(ts), min(status), max(reach) FROM (SELECT server_id, ts, status, reach, SUM(boundary) OVER (ORDER BY ts) as run FROM (SELECT server_id, ts, status, if(LEAD(ts) OVER w - ts <= :gap, LEAD(ts) OVER w, ts) as reach, if(LAG(status) OVER w <=> status AND ts - LAG(ts) OVER w <= :gap, 0, 1) as boundary FROM login_status WHERE server_id=:id AND ts < :before WINDOW w AS (ORDER BY ts)) s) r GROUP BY server_id, run";
+    private static final String BACKFILL_INCIDENTS = "INSERT IGNORE INTO incidents(server_id,start,end,duration) SELECT server_id, ts, coalesce(up, :end), coalesce(up, :end)-ts FROM (SELECT server_id, ts, status, LAG(status) OVER (ORDER BY ts) as previous, (SELECT min(u.ts) FROM login_transitions u WHERE u.server_id=t.server_id AND u.status=1 AND u.ts > t.ts AND u.ts < :before) as up FROM login_transitions t WHERE server_id=:id AND ts < :before) x WHERE status=0 AND (previous IS NULL OR previous <> 0)";
+
+    private final long heartbeat;
+    private final long gap;
+    private final Map<Integer, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * @param gap the longest time between two checks of a server that still counts as one run
+     */
+    TransitionLog(Duration heartbeat, Duration gap) {
+        this.heartbeat = heartbeat.getSeconds();
+        this.gap = gap.getSeconds();
+    }
+
+    /**
+     * Derives runs and incidents from the history in login_status that predates the first run
+     * written live, once per server. Servers that are done are recorded, so an upgrade that
+     * starts writing runs before the old history has been migrated still gets it on the next
+     * call. Each server is done while holding this log's monitor, which writers hold as well, so
+     * its first live run can't appear halfway through.
+     */
+    void backfill(Connection connection) {
+        connection.createQuery(CREATE_BACKFILLED).executeUpdate();
+        final List<Row> servers = connection.createQuery("SELECT s.id FROM servers s WHERE s.id NOT IN (SELECT server_id FROM login_transitions_backfilled)")
+                .executeAndFetchTable().rows();
+        if (servers.isEmpty()) {
+            return;
+        }
+        LOGGER.info("building transitions and incidents of " + servers.size() + " servers from existing login status");
+        for (Row server : servers) {
+            synchronized (this) {
+                backfill(connection, server.getInteger("id"));
+            }
+        }
+    }
+
+    private void backfill(Connection connection, int id) {
+        final Long first = connection.createQuery("SELECT min(ts) FROM login_transitions WHERE server_id=:id")
+                .addParameter("id", id)
+                .executeScalar(Long.class);
+        final long before = first == null ? Long.MAX_VALUE : first;
+        connection.createQuery(BACKFILL_TRANSITIONS)
+                .addParameter("id", id)
+                .addParameter("before", before)
+                .addParameter("gap", gap)
+                .executeUpdate();
+        // an outage still going on when the live runs took over ends where they start; they open their own incident
+        connection.createQuery(BACKFILL_INCIDENTS)
+                .addParameter("id", id)
+                .addParameter("before", before)
+                .addParameter("end", first)
+                .executeUpdate();
+        connection.createQuery("INSERT IGNORE INTO login_transitions_backfilled(server_id) VALUES(:id)")
+                .addParameter("id", id)
+                .executeUpdate();
+    }
+
+    /**
+     * Writes the runs and incident changes caused by the samples, one multi-row statement per
+     * table. The returned states take effect with {@link #apply(Map)} once the transaction is
+     * committed.
+     */
+    Map<Integer, State> write(Connection connection, List<Sample> samples, ToIntFunction<String> ids) {
+        final Map<Integer, State> updated = new HashMap<>();
+        final Set<Integer> unknown = new HashSet<>();
+        for (Sample sample : samples) {
+            final int id = ids.applyAsInt(sample.getServer());
+            if (!states.containsKey(id)) {
+                unknown.add(id);
+            }
+        }
+        final Map<Integer, State> loaded = load(connection, unknown);
+        final Map<Long, long[]> runs = new LinkedHashMap<>();
+        final Map<Integer, Long> closed = new HashMap<>();
+        final List<long[]> opened = new ArrayList<>();
+        final Map<Integer, long[]> open = new HashMap<>();
+        for (Sample sample : samples) {
+            final int id = ids.applyAsInt(sample.getServer());
+            final long ts = sample.getTimestamp().getEpochSecond();
+            State state = updated.get(id);
+            if (state == null) {
+                state = states.containsKey(id) ? states.get(id) : loaded.get(id);
+            }
+            if (state != null && ts <= state.seen) {
+                continue;
+            }
+            final boolean contiguous = state != null && ts - state.seen <= gap;
+            if (state == null || state.status != sample.getStatus() || !contiguous) {
+                if (state != null) {
+                    // the previous run lasted until this sample if it followed in time, otherwise until its last sample
+                    final long end = contiguous ? ts : state.seen;
+                    if (end > state.stored) {
+                        run(runs, id, state.start, state.status, end);
+                    }
+                }
+                run(runs, id, ts, sample.getStatus(), ts);
+                if (state == null || state.status != sample.getStatus()) {
+                    if (!sample.getStatus()) {
+                        final long[] incident = {id, ts, -1};
+                        opened.add(incident);
+                        open.put(id, incident);
+                    } else if (open.containsKey(id)) {
+                        open.remove(id)[2] = ts;
+                    } else if (state != null) {
+                        closed.put(id, ts);
+                    }
+                }
+                updated.put(id, new State(sample.getStatus(), ts, ts, ts));
+            } else if (ts - state.stored >= heartbeat) {
+                run(runs, id, state.start, state.status, ts);
+                updated.put(id, new State(state.status, state.start, ts, ts));
+            } else {
+                updated.put(id, new State(state.status, state.start, ts, state.stored));
+            }
+        }
+        writeRuns(connection, new ArrayList<>(runs.values()));
+        closeIncidents(connection, closed);
+        openIncidents(connection, opened);
+        return updated;
+    }
+
+    private static void run(Map<Long, long[]> runs, int id, long start, boolean status, long last) {
+        runs.put(((long) id << 32) | start, new long[]{id, start, status ? 1 : 0, last});
+    }
+
+    void apply(Map<Integer, State> updated) {
+        states.putAll(updated);
+    }
+
+    List<Incident> getIncidents(Connection connection, int id, String server, Instant from) {
+        final List<Incident> incidents = new ArrayList<>();
+        final List<Row> rows = connection.createQuery("SELECT start, end FROM incidents WHERE server_id=:id AND (end IS NULL OR end >= :from) ORDER BY start DESC")
+                .addParameter("id", id)
+                .addParameter("from", from.getEpochSecond())
+                .executeAndFetchTable().rows();
+        for (Row row : rows) {
+            final Long end = row.getLong("end");
+            incidents.add(new Incident(server, Instant.ofEpochSecond(row.getLong("start")), end == null ? null : Instant.ofEpochSecond(end)));
+        }
+        return incidents;
+    }
+
+    /**
+     * Deletes the runs and incidents of one server that ended before the expiry. Both tables are
+     * keyed by server first, so each chunk stays within that server's range of the key.
+     */
+    long discardExpired(Connection connection, Purger purger, int id, Instant expiry) throws InterruptedException {
+        final Map<String, Object> parameters = Map.of("id", id, "ts", expiry.getEpochSecond());
+        return purger.purge(connection, "login_transitions", "server_id=:id AND ts < :ts AND last < :ts", "server_id, ts", parameters)
+                + purger.purge(connection, "incidents", "server_id=:id AND start < :ts AND end < :ts", "server_id, start", parameters);
+    }
+
+    private static Map<Integer, State> load(Connection connection, Set<Integer> ids) {
+        final Map<Integer, State> loaded = new HashMap<>();
+        if (ids.isEmpty()) {
+            return loaded;
+        }
+        final List<Row> rows = connection.createQuery("SELECT t.server_id, t.status, t.ts, t.last FROM login_transitions t JOIN (SELECT server_id, max(ts) as ts FROM login_transitions WHERE server_id IN (:ids) GROUP BY server_id) l ON t.server_id=l.server_id AND t.ts=l.ts")
+                .addParameter("ids", ids)
+                .executeAndFetchTable().rows();
+        for (Row row : rows) {
+            final long last = row.getLong("last");
+            loaded.put(row.getInteger("server_id"), new State(row.getInteger("status") != 0, row.getLong("ts"), last, last));
+        }
+        return loaded;
+    }
+
+    /**
+     * Inserts new runs and moves the end of existing ones forward. Replaying samples never moves
+     * an end back.
+     */
+    private static void writeRuns(Connection connection, List<long[]> runs) {
+        if (runs.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("INSERT INTO login_transitions(server_id,ts,status,last) VALUES ");
+        for (int i = 0; i < runs.size(); ++i) {
+            sql.append(i == 0 ? "" : ",").append(String.format("(:id%1$d,:ts%1$d,:status%1$d,:last%1$d)", i));
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE last=greatest(last, VALUES(last))");
+        final Query query = connection.createQuery(sql.toString());
+        for (int i = 0; i < runs.size(); ++i) {
+            final long[] run = runs.get(i);
+            query.addParameter("id" + i, run[0])
+                    .addParameter("ts" + i, run[1])
+                    .addParameter("status" + i, run[2])
+                    .addParameter("last" + i, run[3]);
+        }
+        query.executeUpdate();
+    }
+
+    /**
+     * Ends the incidents that were already open before this batch, at most one per server.
+     */
+    private static void closeIncidents(Connection connection, Map<Integer, Long> closed) {
+        if (closed.isEmpty()) {
+            return;
+        }
+        final StringBuilder end = new StringBuilder("CASE server_id");
+        for (int i = 0; i < closed.size(); ++i) {
+            end.append(String.format(" WHEN :id%1$d THEN :ts%1$d", i));
+        }
+        end.append(" END");
+        final Query query = connection.createQuery("UPDATE incidents SET end=" + end + ", duration=" + end + "-start WHERE end IS NULL AND server_id IN (:ids)");
+        int i = 0;
+        for (Map.Entry<Integer, Long> entry : closed.entrySet()) {
+            query.addParameter("id" + i, entry.getKey()).addParameter("ts" + i, entry.getValue());
+            ++i;
+        }
+        query.addParameter("ids", closed.keySet());
+        query.executeUpdate();
+    }
+
+    /**
+     * Inserts the incidents started in this batch, already ended if the server came back within it.
+     */
+    private static void openIncidents(Connection connection, List<long[]> opened) {
+        if (opened.isEmpty()) {
+            return;
+        }
+        final StringBuilder sql = new StringBuilder("INSERT IGNORE INTO incidents(server_id,start,end,duration) VALUES ");
+        for (int i = 0; i < opened.size(); ++i) {
+            sql.append(i == 0 ? "" : ",").append(String.format("(:id%1$d,:start%1$d,:end%1$d,:duration%1$d)", i));
+        }
+        final Query query = connection.createQuery(sql.toString());
+        for (int i = 0; i < opened.size(); ++i) {
+            final long[] incident = opened.get(i);
+            final boolean ended = incident[2] >= 0;
+            query.addParameter("id" + i, incident[0])
+                    .addParameter("start" + i, incident[1])
+                    .addParameter("end" + i, ended ? incident[2] : null)
+                    .addParameter("duration" + i, ended ? incident[2] - incident[1] : null);
+        }
+        query.executeUpdate();
+    }
+
+    static class State {
+        private final boolean status;
+        private final long start;
+        // the latest sample of the run, and how far the stored run reaches
+        private final long seen;
+        private final long stored;
+
+        private State(boolean status, long start, long seen, long stored) {
+            this.status = status;
+            this.start = start;
+            this.seen = seen;
+            this.stored = stored;
+        }
+    }
+}
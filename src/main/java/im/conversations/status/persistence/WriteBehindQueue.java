@@ -0,0 +1,133 @@
+package im.conversations.status.persistence;
+
+import im.conversations.status.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free queue of samples that a single writer thread drains into batched inserts, either once
+ * a batch is full or once the flush interval has passed. When the queue is at capacity the
+ * producer waits for the writer to make room, which slows checkers down instead of losing samples.
+ * Only the writer thread ever writes, so batches reach the store in the order they were taken.
+ */
+public class WriteBehindQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ConcurrentLinkedQueue<Sample> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Consumer<List<Sample>> writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong backpressure = Metrics.counter("write_queue.backpressure");
+    private final AtomicLong batches = Metrics.counter("write_queue.batches");
+    private final AtomicLong written = Metrics.counter("write_queue.written");
+    private final AtomicLong lastBatchMillis = Metrics.counter("write_queue.last_batch_millis");
+
+    public WriteBehindQueue(int capacity, int batchSize, Duration flushInterval, Consumer<List<Sample>> writer) {
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = flushInterval;
+        this.writer = writer;
+        this.thread = new Thread(this::drainLoop, "write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Metrics.gauge("write_queue.size", size::get);
+        Metrics.gauge("write_queue.capacity", () -> this.capacity);
+    }
+
+    public void offer(Sample sample) {
+        if (size.get() >= capacity) {
+            backpressure.incrementAndGet();
+            while (size.get() >= capacity && thread.isAlive()) {
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+            }
+        }
+        queue.add(sample);
+        if (size.incrementAndGet() >= batchSize) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (size.get() < batchSize) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval.toMillis()));
+            }
+            try {
+                while (flushBatch() && size.get() >= batchSize) {
+                    // keep going while full batches are waiting
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to flush write-behind queue", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if a batch has been written
+     */
+    private boolean flushBatch() {
+        final List<Sample> batch = new ArrayList<>(batchSize);
+        Sample sample;
+        while (batch.size() < batchSize && (sample = queue.poll()) != null) {
+            batch.add(sample);
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        size.addAndGet(-batch.size());
+        final long start = System.nanoTime();
+        writer.accept(batch);
+        lastBatchMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        batches.incrementAndGet();
+        written.addAndGet(batch.size());
+        return true;
+    }
+
+    /**
+     * Stops the writer thread and writes whatever is still queued.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            // writing from here as well could commit batches out of order
+            LOGGER.warn("write-behind thread did not finish in time. " + size.get() + " pending samples are lost");
+            return;
+        }
+        int flushed = 0;
+        while (flushBatch()) {
+            flushed++;
+        }
+        if (flushed > 0) {
+            LOGGER.info("flushed " + flushed + " batches of pending samples on shutdown");
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package im.conversations.status.pojo;
+
+public enum CheckPhase {
+    CONNECT, LOGIN, PING
+}
@@ -11,6 +11,7 @@ import rocks.xmpp.addr.Jid;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 
@@ -25,10 +26,52 @@ public class Configuration {
     private String primaryDomain;
     private String ip = "127.0.0.1";
     private int port = 4567;
+    private String storagePath;
+    private String storage = "jdbc";
 
     private String dbUrl;
     private String dbUsername;
     private String dbPassword;
+    private String replicaDbUrl;
+    private int writePoolSize = 3;
+    private int analyticalPoolSize = 2;
+    private int interactivePoolSize = 3;
+
+    private boolean partitionedHistory = false;
+    private int partitionsAhead = 3;
+
+    private boolean sessionPool = false;
+    private int sessionLifetime = 60;
+
+    private boolean virtualThreads = false;
+    private int maxConcurrentChecks = 5;
+
+    private int pingWindow = 50;
+    private int pingTimeout = 10;
+    private int checkBudget = 60;
+
+    private boolean adaptiveCadence = false;
+    private int confirmDelay = 20;
+    private int confirmations = 2;
+    private int backoffAfter = 60;
+    private int maxCheckInterval = 10;
+
+    private int heartbeatInterval = 10;
+
+    private int rawRetention = 31;
+    private int hourlyRetention = 13;
+    private int dailyRetention = 0;
+    private int purgeChunkSize = 5000;
+    private int purgePause = 100;
+
+    private int writeQueueCapacity = 10000;
+    private int writeBatchSize = 500;
+    private int writeFlushInterval = 2;
+    private int spoolRetryInterval = 30;
+
+    public String getStorage() {
+        return storage;
+    }
 
     public String getDbUrl() {
         return dbUrl;
@@ -42,6 +85,121 @@ public class Configuration {
         return dbPassword;
     }
 
+    /**
+     * @return the url of a read replica for the historical calculations or null to use the primary
+     */
+    public String getReplicaDbUrl() {
+        return replicaDbUrl;
+    }
+
+    public int getWritePoolSize() {
+        return writePoolSize;
+    }
+
+    public int getAnalyticalPoolSize() {
+        return analyticalPoolSize;
+    }
+
+    public int getInteractivePoolSize() {
+        return interactivePoolSize;
+    }
+
+    public boolean isPartitionedHistory() {
+        return partitionedHistory;
+    }
+
+    public int getPartitionsAhead() {
+        return partitionsAhead;
+    }
+
+    public boolean isSessionPool() {
+        return sessionPool;
+    }
+
+    public Duration getSessionLifetime() {
+        return Duration.ofMinutes(sessionLifetime);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxConcurrentChecks() {
+        return maxConcurrentChecks;
+    }
+
+    public int getPingWindow() {
+        return pingWindow;
+    }
+
+    public Duration getPingTimeout() {
+        return Duration.ofSeconds(pingTimeout);
+    }
+
+    public Duration getCheckBudget() {
+        return Duration.ofSeconds(checkBudget);
+    }
+
+    public boolean isAdaptiveCadence() {
+        return adaptiveCadence;
+    }
+
+    public Duration getConfirmDelay() {
+        return Duration.ofSeconds(confirmDelay);
+    }
+
+    public int getConfirmations() {
+        return confirmations;
+    }
+
+    public Duration getBackoffAfter() {
+        return Duration.ofMinutes(backoffAfter);
+    }
+
+    public Duration getMaxCheckInterval() {
+        return Duration.ofMinutes(maxCheckInterval);
+    }
+
+    public Duration getHeartbeatInterval() {
+        return Duration.ofMinutes(heartbeatInterval);
+    }
+
+    public Duration getRawRetention() {
+        return Duration.ofDays(rawRetention);
+    }
+
+    public int getHourlyRetention() {
+        return hourlyRetention;
+    }
+
+    public int getDailyRetention() {
+        return dailyRetention;
+    }
+
+    public int getPurgeChunkSize() {
+        return purgeChunkSize;
+    }
+
+    public Duration getPurgePause() {
+        return Duration.ofMillis(purgePause);
+    }
+
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public Duration getWriteFlushInterval() {
+        return Duration.ofSeconds(writeFlushInterval);
+    }
+
+    public Duration getSpoolRetryInterval() {
+        return Duration.ofSeconds(spoolRetryInterval);
+    }
+
     private Configuration() {
 
     }
@@ -54,6 +212,10 @@ public class Configuration {
         return port;
     }
 
+    public String getStoragePath() {
+        return storagePath;
+    }
+
     public String getPrimaryDomain() {
         return primaryDomain;
     }
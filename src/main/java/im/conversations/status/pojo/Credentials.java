@@ -2,6 +2,8 @@ package im.conversations.status.pojo;
 
 import rocks.xmpp.addr.Jid;
 
+import java.util.Objects;
+
 public class Credentials {
 
     private final String jid;
@@ -19,4 +21,17 @@ public class Credentials {
     public String getPassword() {
         return password;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Credentials that = (Credentials) o;
+        return Objects.equals(jid, that.jid) && Objects.equals(password, that.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(jid, password);
+    }
 }
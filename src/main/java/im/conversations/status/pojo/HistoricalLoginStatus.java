@@ -9,6 +9,7 @@ import java.util.Map;
 public class HistoricalLoginStatus {
 
     public static List<Integer> DURATIONS = Arrays.asList(1,7,30,365);
+    public static List<Integer> PING_DURATIONS = Arrays.asList(1,7,30);
     public static ChronoUnit UNIT = ChronoUnit.DAYS;
 
     private final Map<Duration,Double> durationLoginStatusMap;
@@ -0,0 +1,79 @@
+package im.conversations.status.pojo;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A span in which logging in to a server failed. Incidents that haven't ended yet have no end.
+ */
+public class Incident {
+
+    private final String server;
+    private final Instant start;
+    private final Instant end;
+
+    public Incident(String server, Instant start, Instant end) {
+        this.server = server;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public boolean isOngoing() {
+        return end == null;
+    }
+
+    public Duration getDuration() {
+        return Duration.between(start, end == null ? Instant.now() : end);
+    }
+
+    public String getFormattedDuration() {
+        return format(getDuration());
+    }
+
+    public Date getStartDate() {
+        return Date.from(start);
+    }
+
+    public Date getEndDate() {
+        return end == null ? null : Date.from(end);
+    }
+
+    public static String format(Duration duration) {
+        final long minutes = duration.toMinutes();
+        if (minutes < 60) {
+            return minutes + "m";
+        } else if (minutes < 60 * 24) {
+            return (minutes / 60) + "h " + (minutes % 60) + "m";
+        }
+        return (minutes / (60 * 24)) + "d " + (minutes / 60 % 24) + "h";
+    }
+
+    /**
+     * @return how long the incidents overlap with the window between from and to
+     */
+    public static Duration downtime(List<Incident> incidents, Instant from, Instant to) {
+        Duration downtime = Duration.ZERO;
+        for (Incident incident : incidents) {
+            final Instant start = incident.start.isAfter(from) ? incident.start : from;
+            final Instant end = incident.end == null || incident.end.isAfter(to) ? to : incident.end;
+            if (start.isBefore(end)) {
+                downtime = downtime.plus(Duration.between(start, end));
+            }
+        }
+        return downtime;
+    }
+}
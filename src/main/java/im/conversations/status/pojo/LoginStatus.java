@@ -17,6 +17,10 @@ public class LoginStatus {
         return new LoginStatus(Instant.now(), status);
     }
 
+    public static LoginStatus create(Instant timestamp, boolean status) {
+        return new LoginStatus(timestamp, status);
+    }
+
     public Instant getTimestamp() {
         return timestamp;
     }
@@ -1,5 +1,7 @@
 package im.conversations.status.pojo;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -9,18 +11,37 @@ public class ServerStatus {
 
     private final List<PingResult> pingResults;
     private final LoginStatus loginStatus;
+    private final CheckPhase timeoutPhase;
+    private final boolean restored;
 
-    private ServerStatus(boolean loggedIn, List<PingResult> pingResults) {
-        this.loginStatus = LoginStatus.create(loggedIn);
+    private ServerStatus(LoginStatus loginStatus, List<PingResult> pingResults, CheckPhase timeoutPhase, boolean restored) {
+        this.loginStatus = loginStatus;
         this.pingResults = pingResults;
+        this.timeoutPhase = timeoutPhase;
+        this.restored = restored;
+    }
+
+    private ServerStatus(boolean loggedIn, List<PingResult> pingResults, CheckPhase timeoutPhase) {
+        this(LoginStatus.create(loggedIn), pingResults, timeoutPhase, false);
     }
 
     public static ServerStatus createWithLoginFailure() {
-        return new ServerStatus(false, Collections.emptyList());
+        return new ServerStatus(false, Collections.emptyList(), null);
+    }
+
+    public static ServerStatus createWithTimeout(CheckPhase phase) {
+        return new ServerStatus(false, Collections.emptyList(), phase);
     }
 
     public static ServerStatus createWithPingResults(List<PingResult> pingResults) {
-        return new ServerStatus(true, pingResults);
+        return new ServerStatus(true, pingResults, null);
+    }
+
+    /**
+     * @return a status that was recorded before the monitor was restarted
+     */
+    public static ServerStatus restore(Instant timestamp, boolean loggedIn, List<PingResult> pingResults, CheckPhase timeoutPhase) {
+        return new ServerStatus(LoginStatus.create(timestamp, loggedIn), pingResults, timeoutPhase, true);
     }
 
     public boolean isLoggedIn() {
@@ -39,6 +60,25 @@ public class ServerStatus {
         return Date.from(loginStatus.getTimestamp());
     }
 
+    /**
+     * @return the phase in which the check ran out of time or null if it completed in time
+     */
+    public CheckPhase getTimeoutPhase() {
+        return timeoutPhase;
+    }
+
+    /**
+     * @return true if this status was recorded before the monitor was restarted and no check has
+     * replaced it yet
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public Duration getAge() {
+        return Duration.between(loginStatus.getTimestamp(), Instant.now());
+    }
+
     public LoginStatus getLoginStatus() {
         return loginStatus;
     }
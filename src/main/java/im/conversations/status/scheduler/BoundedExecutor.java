@@ -0,0 +1,46 @@
+package im.conversations.status.scheduler;
+
+import im.conversations.status.metrics.Metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every task on its own thread of the delegate (typically one virtual thread per task) while
+ * a semaphore caps how many of them execute at the same time. Tasks over the cap park cheaply
+ * until a permit becomes available.
+ */
+public class BoundedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public BoundedExecutor(Executor delegate, int maxConcurrent) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrent);
+        Metrics.gauge("checks.running", () -> maxConcurrent - permits.availablePermits());
+        Metrics.gauge("checks.waiting", waiting::get);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(() -> {
+            waiting.incrementAndGet();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                waiting.decrementAndGet();
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+}
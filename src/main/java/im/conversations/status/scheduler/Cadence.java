@@ -0,0 +1,77 @@
+package im.conversations.status.scheduler;
+
+import im.conversations.status.persistence.Database;
+import im.conversations.status.pojo.ServerStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Decides how long to wait before checking a server again. Without adaptive cadence every server
+ * is checked once per interval. With it a failed login is confirmed by quick re-checks, and the
+ * interval doubles for every {@code backoffAfter} of uninterrupted availability up to a maximum.
+ */
+public class Cadence {
+
+    private final Duration interval;
+    private final boolean adaptive;
+    private final Duration confirmDelay;
+    private final int confirmations;
+    private final Duration backoffAfter;
+    private final Duration maxInterval;
+
+    private Cadence(Duration interval, boolean adaptive, Duration confirmDelay, int confirmations, Duration backoffAfter, Duration maxInterval) {
+        this.interval = interval;
+        this.adaptive = adaptive;
+        this.confirmDelay = confirmDelay;
+        this.confirmations = confirmations;
+        this.backoffAfter = backoffAfter;
+        this.maxInterval = maxInterval.compareTo(interval) < 0 ? interval : maxInterval;
+    }
+
+    public static Cadence fixed(Duration interval) {
+        return new Cadence(interval, false, interval, 0, interval, interval);
+    }
+
+    public static Cadence adaptive(Duration interval, Duration confirmDelay, int confirmations, Duration backoffAfter, Duration maxInterval) {
+        return new Cadence(interval, true, confirmDelay, confirmations, backoffAfter, maxInterval);
+    }
+
+    public Duration getMaxInterval() {
+        return maxInterval;
+    }
+
+    Duration next(String server, State state, Optional<ServerStatus> result) {
+        if (!adaptive || !result.isPresent()) {
+            return interval;
+        }
+        if (!state.seeded) {
+            state.cleanSince = Database.getInstance().getCleanSince(server);
+            state.seeded = true;
+        }
+        final ServerStatus serverStatus = result.get();
+        if (!serverStatus.isLoggedIn()) {
+            state.cleanSince = null;
+            state.failures++;
+            return state.failures <= confirmations ? confirmDelay : interval;
+        }
+        state.failures = 0;
+        final Instant now = serverStatus.getLoginStatus().getTimestamp();
+        if (state.cleanSince == null) {
+            state.cleanSince = now;
+        }
+        final long steps = Duration.between(state.cleanSince, now).toMillis() / Math.max(1, backoffAfter.toMillis());
+        Duration next = interval;
+        for (long i = 0; i < steps && next.compareTo(maxInterval) < 0; ++i) {
+            next = next.multipliedBy(2);
+        }
+        return next.compareTo(maxInterval) > 0 ? maxInterval : next;
+    }
+
+    static class State {
+        private boolean seeded = false;
+        private Instant cleanSince;
+        private int failures = 0;
+    }
+}
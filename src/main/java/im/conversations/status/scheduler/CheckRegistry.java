@@ -0,0 +1,71 @@
+package im.conversations.status.scheduler;
+
+import im.conversations.status.pojo.Credentials;
+import im.conversations.status.xmpp.PingTargets;
+import im.conversations.status.xmpp.ServerStatusChecker;
+import im.conversations.status.xmpp.SessionPool;
+
+import java.util.*;
+
+/**
+ * Keeps the {@link CheckScheduler} in sync with the monitored credentials. Changes are applied
+ * as a delta keyed by domain: only added domains are started and only removed ones are cancelled,
+ * while all checkers share one {@link PingTargets} instance.
+ */
+public class CheckRegistry {
+
+    private final CheckScheduler scheduler;
+    private final PingTargets pingTargets = new PingTargets();
+    private final Map<String, Credentials> credentialsByDomain = new HashMap<>();
+
+    public CheckRegistry(CheckScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void sync(Collection<Credentials> credentialsList) {
+        final Map<String, Credentials> current = new HashMap<>();
+        for (Credentials credentials : credentialsList) {
+            current.put(credentials.getJid().getDomain(), credentials);
+        }
+        for (String domain : new ArrayList<>(credentialsByDomain.keySet())) {
+            if (!current.containsKey(domain)) {
+                stop(domain);
+            }
+        }
+        for (Map.Entry<String, Credentials> entry : current.entrySet()) {
+            if (!entry.getValue().equals(credentialsByDomain.get(entry.getKey()))) {
+                start(entry.getKey(), entry.getValue());
+            }
+        }
+        pingTargets.update(credentialsByDomain.keySet());
+    }
+
+    public synchronized void add(Credentials credentials) {
+        start(credentials.getJid().getDomain(), credentials);
+        pingTargets.update(credentialsByDomain.keySet());
+    }
+
+    public synchronized void remove(Credentials credentials) {
+        final String domain = credentials.getJid().getDomain();
+        if (credentials.equals(credentialsByDomain.get(domain))) {
+            stop(domain);
+            pingTargets.update(credentialsByDomain.keySet());
+        }
+    }
+
+    private void start(String domain, Credentials credentials) {
+        final Credentials previous = credentialsByDomain.put(domain, credentials);
+        if (previous != null) {
+            SessionPool.INSTANCE.evict(previous);
+        }
+        scheduler.schedule(domain, new ServerStatusChecker(credentials, pingTargets));
+    }
+
+    private void stop(String domain) {
+        final Credentials previous = credentialsByDomain.remove(domain);
+        if (previous != null) {
+            SessionPool.INSTANCE.evict(previous);
+        }
+        scheduler.cancel(domain);
+    }
+}
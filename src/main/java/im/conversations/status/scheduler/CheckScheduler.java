@@ -0,0 +1,256 @@
+package im.conversations.status.scheduler;
+
+import im.conversations.status.metrics.Metrics;
+import im.conversations.status.persistence.Database;
+import im.conversations.status.pojo.ServerStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel with one slot per second of the base interval. Each key is pinned to a
+ * phase derived from its hash and slots are aligned to the wall clock, so a domain is always
+ * checked at the same offset within the interval, across restarts and re-adds, and checks are
+ * spread evenly instead of all firing at once.
+ * <p>
+ * After every run the {@link Cadence} decides when the key is due again, and the result is
+ * recorded as standing for that delay. Delays of at least one interval snap back to the key's
+ * phase; shorter ones (outage confirmation) don't.
+ * <p>
+ * While {@link #pause() paused} due checks are held back. On {@link #resume()} each of them is
+ * due again at its own phase, which spreads the catch-up over one interval.
+ */
+public class CheckScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckScheduler.class);
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final int slots;
+    private final List<Set<Entry>> wheel;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Executor executor;
+    private final Cadence cadence;
+    private ScheduledExecutorService ticker;
+    private final AtomicLong dispatched = Metrics.counter("scheduler.dispatched");
+    private final AtomicLong deferred = Metrics.counter("scheduler.deferred");
+    private final List<Entry> held = new ArrayList<>();
+    private long lastTick;
+    private boolean started = false;
+    private boolean paused = false;
+
+    public CheckScheduler(Duration interval, Executor executor, Cadence cadence) {
+        this.slots = (int) Math.max(1, interval.toMillis() / TICK_MILLIS);
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; ++i) {
+            this.wheel.add(new LinkedHashSet<>());
+        }
+        this.executor = executor;
+        this.cadence = cadence;
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Metrics.gauge("scheduler.scheduled", this::size);
+        Metrics.gauge("scheduler.paused", () -> isPaused() ? 1 : 0);
+        for (int i = 0; i < slots; ++i) {
+            final int slot = i;
+            Metrics.gauge(String.format("scheduler.slot.%03d.load", slot), () -> getSlotLoad(slot));
+        }
+        lastTick = currentTick() - 1;
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(this::tick, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        final long now = currentTick();
+        for (Entry entry : held) {
+            if (entries.get(entry.key) == entry) {
+                insert(entry, alignToPhase(entry.phase, now + 1));
+            }
+        }
+        LOGGER.info("resumed checks. " + held.size() + " held back checks will catch up within one interval");
+        held.clear();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Registers (or replaces) the check for the given key. Keys that are new to a running scheduler
+     * are checked right away so that freshly added servers don't have to wait for their slot.
+     */
+    public synchronized void schedule(String key, Callable<Optional<ServerStatus>> check) {
+        final boolean existed = remove(key);
+        final int phase = phaseOf(key, slots);
+        final Entry entry = new Entry(key, check, phase);
+        entries.put(key, entry);
+        final long now = started ? currentTick() : currentTick() - 1;
+        insert(entry, started && !existed ? now + 1 : alignToPhase(phase, now + 1));
+    }
+
+    public synchronized boolean cancel(String key) {
+        return remove(key);
+    }
+
+    public synchronized Set<String> getKeys() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int[] getSlotLoad() {
+        final int[] load = new int[slots];
+        for (int i = 0; i < slots; ++i) {
+            load[i] = wheel.get(i).size();
+        }
+        return load;
+    }
+
+    private synchronized int getSlotLoad(int slot) {
+        return wheel.get(slot).size();
+    }
+
+    public static int phaseOf(String key, int slots) {
+        // murmur3 finalizer; String.hashCode() alone clusters similar domain names
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, slots);
+    }
+
+    private boolean remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.dueTick >= 0) {
+            wheel.get(slotOf(entry.dueTick)).remove(entry);
+        }
+        held.remove(entry);
+        return true;
+    }
+
+    private void insert(Entry entry, long dueTick) {
+        entry.dueTick = dueTick;
+        wheel.get(slotOf(dueTick)).add(entry);
+    }
+
+    /**
+     * @return the first tick at or after {@code tick} that falls on the given phase
+     */
+    private long alignToPhase(int phase, long tick) {
+        return tick + Math.floorMod(phase - tick, (long) slots);
+    }
+
+    private int slotOf(long tick) {
+        return (int) Math.floorMod(tick, (long) slots);
+    }
+
+    private void tick() {
+        final long now = currentTick();
+        final List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            // catch up on ticks missed because the ticker got delayed, but never visit a slot twice
+            final long from = Math.max(lastTick + 1, now - slots + 1);
+            for (long t = from; t <= now; ++t) {
+                final Iterator<Entry> iterator = wheel.get(slotOf(t)).iterator();
+                while (iterator.hasNext()) {
+                    final Entry entry = iterator.next();
+                    if (entry.dueTick <= now) {
+                        iterator.remove();
+                        entry.dueTick = -1;
+                        if (paused) {
+                            held.add(entry);
+                            deferred.incrementAndGet();
+                        } else {
+                            due.add(entry);
+                        }
+                    }
+                }
+            }
+            lastTick = Math.max(lastTick, now);
+        }
+        for (Entry entry : due) {
+            try {
+                executor.execute(() -> run(entry));
+                dispatched.incrementAndGet();
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to dispatch check", e);
+                reschedule(entry, Optional.empty());
+            }
+        }
+    }
+
+    private void run(Entry entry) {
+        Optional<ServerStatus> result = Optional.empty();
+        try {
+            result = entry.check.call();
+        } catch (Exception e) {
+            LOGGER.error("unexpected problem running check for " + entry.key, e);
+        } finally {
+            reschedule(entry, result);
+        }
+    }
+
+    private void reschedule(Entry entry, Optional<ServerStatus> result) {
+        final Duration delay = cadence.next(entry.key, entry.state, result);
+        result.ifPresent(serverStatus -> Database.getInstance().put(entry.key, serverStatus, delay));
+        synchronized (this) {
+            if (entries.get(entry.key) != entry) {
+                // cancelled or replaced while running
+                return;
+            }
+            final long now = currentTick();
+            final long delayTicks = Math.max(1, delay.toMillis() / TICK_MILLIS);
+            if (delayTicks >= slots) {
+                insert(entry, alignToPhase(entry.phase, now + delayTicks - slots + 1));
+            } else {
+                insert(entry, now + delayTicks);
+            }
+        }
+    }
+
+    private static long currentTick() {
+        return System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    private static class Entry {
+        private final String key;
+        private final Callable<Optional<ServerStatus>> check;
+        private final int phase;
+        private final Cadence.State state = new Cadence.State();
+        private long dueTick = -1;
+
+        private Entry(String key, Callable<Optional<ServerStatus>> check, int phase) {
+            this.key = key;
+            this.check = check;
+            this.phase = phase;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package im.conversations.status.scheduler;
+
+import im.conversations.status.persistence.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Suspends the {@link CheckScheduler} while the uplink of this node is down and records the time
+ * in between as a gap in monitoring rather than leaving it silent.
+ */
+public class NetworkGate implements Consumer<Boolean> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkGate.class);
+
+    private final CheckScheduler scheduler;
+    private Instant offlineSince;
+
+    public NetworkGate(CheckScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public synchronized void accept(Boolean up) {
+        if (up) {
+            scheduler.resume();
+            if (offlineSince != null) {
+                Database.getInstance().putMonitorOffline(offlineSince, Instant.now());
+                offlineSince = null;
+            }
+        } else {
+            LOGGER.info("network is down. suspending checks");
+            offlineSince = Instant.now();
+            scheduler.pause();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package im.conversations.status.web;
 
+import im.conversations.status.Main;
+import im.conversations.status.metrics.Metrics;
 import im.conversations.status.persistence.Database;
 import im.conversations.status.pojo.*;
 import im.conversations.status.xmpp.CredentialsVerifier;
@@ -8,8 +10,12 @@ import spark.ModelAndView;
 import spark.Route;
 import spark.TemplateViewRoute;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static spark.Spark.halt;
 
@@ -35,6 +41,12 @@ public class Controller {
         if (serverStatus != null) {
             model.put("serverStatus", serverStatus);
             model.put("availableDomains", domains);
+            // older than the longest check interval means a check was missed
+            final Duration maxAge = Configuration.getInstance().isAdaptiveCadence() ?
+                    Configuration.getInstance().getMaxCheckInterval() : Main.CHECK_INTERVAL;
+            if (serverStatus.isRestored() || serverStatus.getAge().compareTo(maxAge.plus(Main.CHECK_INTERVAL)) > 0) {
+                model.put("staleMinutes", serverStatus.getAge().toMinutes());
+            }
         } else if(domains.contains(domain)) {
             // If domain is present in domain list but it's result is not present in server status
             response.redirect("/live/" + domain);
@@ -67,6 +79,8 @@ public class Controller {
         final String domain = request.params("domain");
         HashMap<String,Object> model = new HashMap<>();
         model.put("pingResults", Database.getInstance().getReverseStatusMap(domain));
+        model.put("pingHistory", Database.getInstance().getHistoricalPingStatus(domain));
+        model.put("durations", HistoricalLoginStatus.PING_DURATIONS);
         model.put("domain",domain);
         return new ModelAndView(model, "reverse.ftl");
     };
@@ -78,6 +92,24 @@ public class Controller {
         return new ModelAndView(model,"live.ftl");
     };
 
+    public static TemplateViewRoute getIncidents = (request, response) -> {
+        final String domain = request.params("domain");
+        if (!Database.getInstance().exists(domain)) {
+            halt(404, "<p>ERROR: Unknown domain</p>");
+        }
+        final List<Incident> incidents = Database.getInstance().getIncidents(domain);
+        final Instant now = Instant.now();
+        final Map<Integer, String> downtime = new LinkedHashMap<>();
+        for (int days : HistoricalLoginStatus.DURATIONS) {
+            downtime.put(days, Incident.format(Incident.downtime(incidents, now.minus(days, HistoricalLoginStatus.UNIT), now)));
+        }
+        final HashMap<String, Object> model = new HashMap<>();
+        model.put("domain", domain);
+        model.put("incidents", incidents);
+        model.put("downtime", downtime);
+        return new ModelAndView(model, "incidents.ftl");
+    };
+
     public static TemplateViewRoute getAdd = (request, response) -> new ModelAndView(null,"add.ftl");
 
     public static TemplateViewRoute postAdd = (request, response) -> {
@@ -122,4 +154,9 @@ public class Controller {
             return "UNAVAILABLE";
         }
     };
+
+    public static Route getMetrics = (request, response) -> {
+        response.type("text/plain");
+        return Metrics.render();
+    };
 }
@@ -0,0 +1,113 @@
+package im.conversations.status.xmpp;
+
+import im.conversations.status.metrics.Metrics;
+import im.conversations.status.pojo.CheckPhase;
+import rocks.xmpp.core.session.XmppClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hard wall-clock budget for a single status check. When the budget runs out the watched
+ * session is closed and the checking thread is interrupted so that neither a stalled TLS
+ * handshake nor a stalled SASL exchange can hold on to the thread.
+ */
+class CheckDeadline {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "check-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<CheckPhase, AtomicLong> EXCEEDED = new EnumMap<>(CheckPhase.class);
+
+    static {
+        for (CheckPhase phase : CheckPhase.values()) {
+            EXCEEDED.put(phase, Metrics.counter("checks.deadline_exceeded." + phase.name().toLowerCase()));
+        }
+    }
+
+    private final Instant expiry;
+    private final Thread thread;
+    private final ScheduledFuture<?> future;
+    private volatile CheckPhase phase = CheckPhase.CONNECT;
+    private XmppClient xmppClient;
+    private boolean expired = false;
+    private boolean done = false;
+
+    private CheckDeadline(Duration budget) {
+        this.expiry = Instant.now().plus(budget);
+        this.thread = Thread.currentThread();
+        this.future = WATCHDOG.schedule(this::expire, budget.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    static CheckDeadline start(Duration budget) {
+        return new CheckDeadline(budget);
+    }
+
+    void enter(CheckPhase phase) {
+        this.phase = phase;
+    }
+
+    synchronized void watch(XmppClient xmppClient) {
+        this.xmppClient = xmppClient;
+        if (expired) {
+            SessionPool.close(xmppClient);
+        }
+    }
+
+    CheckPhase getPhase() {
+        return phase;
+    }
+
+    synchronized boolean isExpired() {
+        return expired;
+    }
+
+    Duration remaining() {
+        final Duration remaining = Duration.between(Instant.now(), expiry);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    /**
+     * Ends the watch. Must be called by the checking thread once the check is over.
+     */
+    void cancel() {
+        synchronized (this) {
+            done = true;
+        }
+        future.cancel(false);
+        // clear an interrupt that raced with the end of the check
+        Thread.interrupted();
+    }
+
+    /**
+     * Declares the budget as exceeded. Called by the watchdog or by the checking thread itself when
+     * it notices that the remaining budget is used up before the watchdog fired.
+     */
+    void expire() {
+        final XmppClient xmppClient;
+        synchronized (this) {
+            if (done || expired) {
+                return;
+            }
+            expired = true;
+            xmppClient = this.xmppClient;
+            if (Thread.currentThread() != thread) {
+                thread.interrupt();
+            }
+        }
+        EXCEEDED.get(phase).incrementAndGet();
+        if (xmppClient != null) {
+            SessionPool.close(xmppClient);
+        }
+    }
+}
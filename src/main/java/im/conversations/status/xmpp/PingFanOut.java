@@ -0,0 +1,78 @@
+package im.conversations.status.xmpp;
+
+import im.conversations.status.pojo.PingResult;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.extensions.ping.PingManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronously pings a list of servers with at most {@code window} pings in flight. Every
+ * ping has its own deadline and a finished ping immediately releases its spot in the window to
+ * the next target. No thread is blocked while waiting for responses.
+ */
+class PingFanOut {
+
+    private final PingManager pingManager;
+    private final List<Jid> targets;
+    private final int window;
+    private final Duration deadline;
+    private final List<CompletableFuture<PingResult>> results;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private PingFanOut(PingManager pingManager, List<Jid> targets, int window, Duration deadline) {
+        this.pingManager = pingManager;
+        this.targets = targets;
+        this.window = Math.max(1, window);
+        this.deadline = deadline;
+        this.results = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); ++i) {
+            this.results.add(new CompletableFuture<>());
+        }
+    }
+
+    static CompletableFuture<List<PingResult>> ping(PingManager pingManager, List<Jid> targets, int window, Duration deadline) {
+        return new PingFanOut(pingManager, targets, window, deadline).start();
+    }
+
+    private CompletableFuture<List<PingResult>> start() {
+        for (int i = 0; i < Math.min(window, targets.size()); ++i) {
+            launch();
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    private void launch() {
+        int index;
+        while ((index = next.getAndIncrement()) < targets.size()) {
+            final CompletableFuture<PingResult> result = ping(index);
+            if (!result.isDone()) {
+                result.thenRun(this::launch);
+                return;
+            }
+            // completed synchronously (e.g. the stream is already gone); loop instead of recursing
+        }
+    }
+
+    private CompletableFuture<PingResult> ping(int index) {
+        final Jid server = targets.get(index);
+        final CompletableFuture<PingResult> result = results.get(index);
+        final CompletableFuture<Boolean> ping;
+        try {
+            ping = pingManager.ping(server).toCompletableFuture();
+        } catch (RuntimeException e) {
+            result.complete(new PingResult(server, false));
+            return result;
+        }
+        ping.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((successful, throwable) -> result.complete(new PingResult(server, throwable == null && Boolean.TRUE.equals(successful))));
+        return result;
+    }
+}
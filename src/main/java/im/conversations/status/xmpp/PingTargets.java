@@ -0,0 +1,32 @@
+package im.conversations.status.xmpp;
+
+import im.conversations.status.pojo.Configuration;
+import rocks.xmpp.addr.Jid;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Live set of servers every {@link ServerStatusChecker} pings. Updates replace an immutable
+ * snapshot so running checkers pick up added or removed domains on their next run.
+ */
+public class PingTargets {
+
+    private volatile List<Jid> targets = Collections.emptyList();
+
+    public List<Jid> get() {
+        return targets;
+    }
+
+    public void update(Collection<String> domains) {
+        this.targets = Collections.unmodifiableList(Stream.concat(
+                domains.stream().map(Jid::ofDomain),
+                Configuration.getInstance().getAdditionalDomains().stream())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList()));
+    }
+}
@@ -1,8 +1,11 @@
 package im.conversations.status.xmpp;
 
+import im.conversations.status.metrics.Metrics;
 import im.conversations.status.network.NetworkAvailability;
 import im.conversations.status.persistence.Database;
 import im.conversations.status.persistence.ThreeStrikesStore;
+import im.conversations.status.pojo.CheckPhase;
+import im.conversations.status.pojo.Configuration;
 import im.conversations.status.pojo.Credentials;
 import im.conversations.status.pojo.PingResult;
 import im.conversations.status.pojo.ServerStatus;
@@ -11,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.XmppException;
 import rocks.xmpp.core.sasl.AuthenticationException;
+import rocks.xmpp.core.session.ReconnectionStrategy;
 import rocks.xmpp.core.session.XmppClient;
 import rocks.xmpp.core.session.XmppSessionConfiguration;
 import rocks.xmpp.extensions.caps.EntityCapabilitiesManager;
@@ -21,67 +25,171 @@ import rocks.xmpp.im.roster.RosterManager;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-public class ServerStatusChecker implements Runnable {
+public class ServerStatusChecker implements Callable<Optional<ServerStatus>> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ServerStatusChecker.class);
 
     private final Credentials credentials;
-    private final List<Jid> serversToPing;
+    private static final AtomicLong SKIPPED_OVERRUN = Metrics.counter("checks.skipped_overrun");
 
-    public ServerStatusChecker(Credentials credentials, List<Jid> serversToPing) {
+    private final PingTargets serversToPing;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public ServerStatusChecker(Credentials credentials, PingTargets serversToPing) {
         this.credentials = credentials;
         this.serversToPing = serversToPing;
     }
 
     @Override
-    public void run() {
+    public Optional<ServerStatus> call() {
+        if (!running.compareAndSet(false, true)) {
+            SKIPPED_OVERRUN.incrementAndGet();
+            LOGGER.info("previous check of " + credentials.getJid().getDomain() + " is still running. skipping");
+            return Optional.empty();
+        }
         try {
-            checkStatus().ifPresent(serverStatus -> Database.getInstance().put(credentials.getJid().getDomain(), serverStatus));
+            return checkStatus();
         } catch (Throwable t) {
             LOGGER.error("unexpected problem", t);
+            return Optional.empty();
+        } finally {
+            running.set(false);
         }
     }
 
     private Optional<ServerStatus> checkStatus() {
-        XmppSessionConfiguration xmppSessionConfiguration = XmppSessionConfiguration.builder()
+        final CheckDeadline deadline = CheckDeadline.start(Configuration.getInstance().getCheckBudget());
+        try {
+            if (Configuration.getInstance().isSessionPool()) {
+                return checkStatusWithPooledSession(deadline);
+            }
+            try (XmppClient xmppClient = createXmppClient()) {
+                deadline.watch(xmppClient);
+                login(xmppClient, deadline);
+                return Optional.of(ServerStatus.createWithPingResults(ping(xmppClient, deadline)));
+            } catch (XmppException e) {
+                return onFailure(e, deadline);
+            } catch (TimeoutException e) {
+                return onTimeout(deadline);
+            }
+        } finally {
+            deadline.cancel();
+        }
+    }
+
+    private Optional<ServerStatus> checkStatusWithPooledSession(CheckDeadline deadline) {
+        final XmppClient pooledClient = SessionPool.INSTANCE.take(credentials);
+        final XmppClient xmppClient;
+        if (pooledClient == null) {
+            xmppClient = createXmppClient();
+            deadline.watch(xmppClient);
+            try {
+                login(xmppClient, deadline);
+            } catch (XmppException e) {
+                SessionPool.INSTANCE.discard(credentials, xmppClient);
+                return onFailure(e, deadline);
+            }
+        } else {
+            xmppClient = pooledClient;
+            deadline.watch(xmppClient);
+        }
+        final List<PingResult> results;
+        try {
+            results = ping(xmppClient, deadline);
+        } catch (TimeoutException e) {
+            SessionPool.INSTANCE.discard(credentials, xmppClient);
+            return onTimeout(deadline);
+        }
+        if (deadline.isExpired()) {
+            SessionPool.INSTANCE.discard(credentials, xmppClient);
+            return onTimeout(deadline);
+        }
+        if (!xmppClient.isAuthenticated()) {
+            SessionPool.INSTANCE.discard(credentials, xmppClient);
+            return onFailure(new XmppException("stream failed during ping"), deadline);
+        }
+        SessionPool.INSTANCE.release(credentials, xmppClient);
+        return Optional.of(ServerStatus.createWithPingResults(results));
+    }
+
+    private XmppClient createXmppClient() {
+        final XmppSessionConfiguration.Builder builder = XmppSessionConfiguration.builder()
                 .cacheDirectory(null)
-                .defaultResponseTimeout(Duration.ofSeconds(10))
-                .build();
-        try (XmppClient xmppClient = XmppClient.create(credentials.getJid().getDomain(), xmppSessionConfiguration)) {
-            xmppClient.connect();
-            xmppClient.getManager(RosterManager.class).setRetrieveRosterOnLogin(false);
-            xmppClient.getManager(ServiceDiscoveryManager.class).setEnabled(false);
-            xmppClient.getManager(EntityCapabilitiesManager.class).setEnabled(false);
-            final PingManager pingManager = xmppClient.getManager(PingManager.class);
-            xmppClient.login(credentials.getJid().getLocal(), credentials.getPassword());
-            List<PingResult> results = serversToPing.parallelStream()
-                    .filter(s -> !s.toString().equals(credentials.getJid().getDomain()))
-                    .map(server -> pingManager.ping(server)
-                            .toCompletableFuture()
-                            .thenApply(result -> new PingResult(server, result))
-                            .exceptionally(throwable -> new PingResult(server, false)))
-                    .map(CompletableFuture::join)
-                    .collect(Collectors.toList());
-            return Optional.of(ServerStatus.createWithPingResults(results));
-        } catch (AuthenticationException e) {
-            LOGGER.info("Authentication failure while testing " + credentials.getJid().getDomain());
+                .defaultResponseTimeout(Duration.ofSeconds(10));
+        if (Configuration.getInstance().isVirtualThreads()) {
+            builder.threadFactory(Thread.ofVirtual().name("xmpp-", 0).factory());
+        }
+        if (Configuration.getInstance().isSessionPool()) {
+            // dead pooled streams are replaced by a fresh login rather than being resumed in the background
+            builder.reconnectionStrategy(ReconnectionStrategy.none());
+        }
+        return XmppClient.create(credentials.getJid().getDomain(), builder.build());
+    }
+
+    private void login(XmppClient xmppClient, CheckDeadline deadline) throws XmppException {
+        deadline.enter(CheckPhase.CONNECT);
+        xmppClient.connect();
+        xmppClient.getManager(RosterManager.class).setRetrieveRosterOnLogin(false);
+        xmppClient.getManager(ServiceDiscoveryManager.class).setEnabled(false);
+        xmppClient.getManager(EntityCapabilitiesManager.class).setEnabled(false);
+        deadline.enter(CheckPhase.LOGIN);
+        xmppClient.login(credentials.getJid().getLocal(), credentials.getPassword());
+    }
+
+    private List<PingResult> ping(XmppClient xmppClient, CheckDeadline deadline) throws TimeoutException {
+        deadline.enter(CheckPhase.PING);
+        final Configuration configuration = Configuration.getInstance();
+        final List<Jid> targets = serversToPing.get().stream()
+                .filter(s -> !s.toString().equals(credentials.getJid().getDomain()))
+                .collect(Collectors.toList());
+        try {
+            return PingFanOut.ping(xmppClient.getManager(PingManager.class), targets, configuration.getPingWindow(), configuration.getPingTimeout())
+                    .get(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new TimeoutException();
+        }
+    }
+
+    private Optional<ServerStatus> onTimeout(CheckDeadline deadline) {
+        deadline.expire();
+        // the watchdog interrupted the thread; don't let that leak into persisting the result
+        Thread.interrupted();
+        final String domain = credentials.getJid().getDomain();
+        if (!NetworkAvailability.isNetworkUp()) {
+            LOGGER.info("Network unavailable while testing " + domain);
+            return Optional.empty();
+        }
+        LOGGER.info("check of " + domain + " exceeded its time budget during " + deadline.getPhase());
+        return Optional.of(ServerStatus.createWithTimeout(deadline.getPhase()));
+    }
+
+    private Optional<ServerStatus> onFailure(XmppException e, CheckDeadline deadline) {
+        if (deadline.isExpired()) {
+            return onTimeout(deadline);
+        }
+        final String domain = credentials.getJid().getDomain();
+        if (e instanceof AuthenticationException) {
+            LOGGER.info("Authentication failure while testing " + domain);
             if (ThreeStrikesStore.INSTANCE.strike(credentials)) {
                 if (Database.getInstance().delete(credentials)) {
                     LOGGER.info("successfully deleted credentials for " + credentials.getJid() + " after three strikes");
                 }
             }
             return Optional.of(ServerStatus.createWithLoginFailure());
-        } catch (XmppException e) {
-            final String domain = credentials.getJid().getDomain();
-            if (!NetworkAvailability.test()) {
-                LOGGER.info("Network unavailable while testing " + domain);
-                return Optional.empty();
-            }
-            LOGGER.info(e.getMessage() + " while testing " + domain);
-            return Optional.of(ServerStatus.createWithLoginFailure());
         }
+        if (!NetworkAvailability.isNetworkUp()) {
+            LOGGER.info("Network unavailable while testing " + domain);
+            return Optional.empty();
+        }
+        LOGGER.info(e.getMessage() + " while testing " + domain);
+        return Optional.of(ServerStatus.createWithLoginFailure());
     }
 }
@@ -0,0 +1,154 @@
+package im.conversations.status.xmpp;
+
+import im.conversations.status.pojo.Configuration;
+import im.conversations.status.pojo.Credentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.session.XmppClient;
+import rocks.xmpp.extensions.ping.PingManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps one authenticated {@link XmppClient} per {@link Credentials} alive across check cycles.
+ * A session is checked out exclusively with {@link #take(Credentials)} and handed back with
+ * {@link #release(Credentials, XmppClient)} once the check is done.
+ */
+public class SessionPool {
+
+    public static final SessionPool INSTANCE = new SessionPool();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+
+    private static final Duration LIVENESS_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HashMap<Credentials, PooledSession> sessions = new HashMap<>();
+    private final HashMap<Credentials, PooledSession> checkedOut = new HashMap<>();
+    private final HashSet<Credentials> evicted = new HashSet<>();
+
+    private SessionPool() {
+
+    }
+
+    /**
+     * @return a live session that is younger than the configured session lifetime or null if
+     * the caller has to establish (and log in) a new one
+     */
+    public XmppClient take(Credentials credentials) {
+        final PooledSession session;
+        synchronized (sessions) {
+            session = sessions.remove(credentials);
+            // a miss is checked out too, so that an eviction during the check also closes the new session
+            checkedOut.put(credentials, null);
+        }
+        if (session == null) {
+            return null;
+        }
+        final Duration age = Duration.between(session.established, Instant.now());
+        if (age.compareTo(Configuration.getInstance().getSessionLifetime()) >= 0) {
+            LOGGER.debug("session for " + credentials.getJid() + " reached its lifetime of " + age);
+            close(session.xmppClient);
+            return null;
+        }
+        if (!isAlive(session.xmppClient)) {
+            LOGGER.info("detected dead stream for " + credentials.getJid());
+            close(session.xmppClient);
+            return null;
+        }
+        synchronized (sessions) {
+            checkedOut.put(credentials, session);
+        }
+        return session.xmppClient;
+    }
+
+    public void release(Credentials credentials, XmppClient xmppClient) {
+        synchronized (sessions) {
+            final PooledSession previous = checkedOut.remove(credentials);
+            if (!evicted.remove(credentials) && !sessions.containsKey(credentials)) {
+                if (previous != null && previous.xmppClient == xmppClient) {
+                    sessions.put(credentials, previous);
+                } else {
+                    sessions.put(credentials, new PooledSession(xmppClient));
+                }
+                return;
+            }
+        }
+        close(xmppClient);
+    }
+
+    /**
+     * Drops a checked out session after its stream failed during a check.
+     */
+    public void discard(Credentials credentials, XmppClient xmppClient) {
+        synchronized (sessions) {
+            checkedOut.remove(credentials);
+            evicted.remove(credentials);
+        }
+        close(xmppClient);
+    }
+
+    /**
+     * Closes the pooled session of credentials that are no longer being monitored. A session that
+     * is checked out at the moment is closed when it is released.
+     */
+    public void evict(Credentials credentials) {
+        final PooledSession session;
+        synchronized (sessions) {
+            session = sessions.remove(credentials);
+            if (checkedOut.containsKey(credentials)) {
+                evicted.add(credentials);
+            }
+        }
+        if (session != null) {
+            close(session.xmppClient);
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    private static boolean isAlive(XmppClient xmppClient) {
+        if (!xmppClient.isAuthenticated()) {
+            return false;
+        }
+        try {
+            return xmppClient.getManager(PingManager.class)
+                    .pingServer()
+                    .toCompletableFuture()
+                    .get(LIVENESS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    static void close(XmppClient xmppClient) {
+        try {
+            xmppClient.close();
+        } catch (XmppException e) {
+            LOGGER.debug("unable to close session cleanly", e);
+        }
+    }
+
+    private static class PooledSession {
+        private final XmppClient xmppClient;
+        private final Instant established;
+
+        private PooledSession(XmppClient xmppClient) {
+            this.xmppClient = xmppClient;
+            this.established = Instant.now();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+<#ftl output_format="HTML">
+<#import "page.ftl" as page/>
+<#assign title="Incidents of ${domain}">
+<@page.page title=$title historical=false>
+<h1>${title}</h1>
+<table class="rightbound">
+    <thead>
+    <tr>
+        <#list downtime as days, duration>
+            <th><#if days == 1>24 hours<#else>${days} days</#if></th>
+        </#list>
+    </tr>
+    </thead>
+    <tr>
+        <#list downtime as days, duration>
+            <td>${duration}</td>
+        </#list>
+    </tr>
+</table>
+<#if incidents?size == 0>
+    <p class="info">No incidents in the last year</p>
+<#else>
+<table class="rightbound">
+    <thead>
+    <tr>
+        <th>Start</th>
+        <th>End</th>
+        <th>Duration</th>
+    </tr>
+    </thead>
+    <#list incidents as incident>
+        <tr>
+            <td>${incident.getStartDate()?datetime}</td>
+            <#if incident.isOngoing()>
+                <td class="unsuccessful">ongoing</td>
+            <#else>
+                <td>${incident.getEndDate()?datetime}</td>
+            </#if>
+            <td>${incident.getFormattedDuration()}</td>
+        </tr>
+    </#list>
+</table>
+</#if>
+</@page.page>
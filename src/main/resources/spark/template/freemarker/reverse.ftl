@@ -5,14 +5,35 @@
 <#if 1 < pingResults?size>
 <h1>${title}</h1>
 <table class="rightbound">
+    <#if pingHistory?size != 0>
+    <thead>
+    <tr>
+        <th></th>
+        <th>now</th>
+        <#list durations as duration>
+            <th><#if duration == 1>24 hours<#else>${duration} days</#if></th>
+        </#list>
+    </tr>
+    </thead>
+    </#if>
     <#list pingResults as result>
         <tr>
             <td><a href="/${result.getServer()}/">${result.getServer()}</a></td>
             <td class="<#if result.isSuccessful()>successful">reachable<#else>unsuccessful">unreachable</#if></td>
+            <#if pingHistory?size != 0>
+                <#list durations as duration>
+                    <#if pingHistory[result.getServer().toString()]?? && pingHistory[result.getServer().toString()].isAvailableForDuration(duration)>
+                        <#assign availability=pingHistory[result.getServer().toString()].getForDuration(duration)>
+                        <td class="<#if 99.5 < availability>successful<#else>unsuccessful</#if>">${availability?string["0.##"]}&percnt;</td>
+                    <#else>
+                        <td class="info">N/A</td>
+                    </#if>
+                </#list>
+            </#if>
         </tr>
     </#list>
 </table>
 <#else>
     <p>No current information available on ${domain}</p>
 </#if>
-</@page.page>
\ No newline at end of file
+</@page.page>
@@ -26,8 +26,14 @@
     </table>
     <#else>
     <h1>${domain} seems to be down</h1>
+    <#if serverStatus.getTimeoutPhase()??>
+    <p class="info">The last check timed out during ${serverStatus.getTimeoutPhase()?lower_case}</p>
     </#if>
-<p class="small info">Last updated: ${lastUpdated?datetime}</p>
+    </#if>
+<p class="small info">Last updated: ${lastUpdated?datetime} · <a href="/incidents/${domain}/">Incidents</a></p>
+<#if staleMinutes??>
+<p class="small info">This result is ${staleMinutes} minutes old<#if serverStatus.isRestored()> and was recorded before the monitor restarted</#if>. A new check is pending.</p>
+</#if>
 <#else>
 <p>No current information available on ${domain}</p>
 </#if>